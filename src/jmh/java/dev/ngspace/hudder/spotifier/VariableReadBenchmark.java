@@ -0,0 +1,101 @@
+package dev.ngspace.hudder.spotifier;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import dev.ngspace.hudder.spotifier.spotifyapi.Fixtures;
+import dev.ngspace.hudder.spotifier.spotifyapi.NowPlaying;
+import dev.ngspace.hudder.spotifier.spotifyapi.PlaybackClock;
+import dev.ngspace.hudder.utils.ValueGetter;
+
+/**
+ * The per frame cost of the variables, and the once per snapshot cost of compiling their view.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VariableReadBenchmark {
+
+	private NowPlaying playing;
+	private SessionState session;
+	private PlaybackClock clock;
+	private Marquee marquee;
+
+	private static final String LONG_NAME = "A Track Name Far Too Long To Fit On Any Reasonable HUD (Extended Remix)";
+
+	@Setup
+	public void setup() {
+		playing = Fixtures.nowPlaying();
+		session = SessionState.of(null, playing);
+		clock = new PlaybackClock();
+		clock.update(playing);
+		marquee = new Marquee();
+	}
+
+	@Benchmark
+	public SessionState compileView() {
+		return SessionState.of(null, playing);
+	}
+
+	@Benchmark
+	public long progress() {
+		return clock.progressMs();
+	}
+
+	/** All of the formatted time variables, cached for the second */
+	@Benchmark
+	public void readProgressText(Blackhole bh) {
+		ProgressText.Formatted f = ProgressText.get(clock.progressMs(), session.view().durationMs());
+		bh.consume(f.progress());
+		bh.consume(f.duration());
+		bh.consume(f.remaining());
+		bh.consume(f.ratio());
+		bh.consume(f.bar());
+	}
+
+	/** A track name too long to fit, scrolled by the marquee, mostly the same window as the frame before */
+	@Benchmark
+	public String readMarquee() {
+		return marquee.scroll(LONG_NAME);
+	}
+
+	@Benchmark
+	public void readQueue(Blackhole bh) {
+		for (ValueGetter song : session.view().queue())
+			bh.consume(song.get("track"));
+	}
+
+	/** Everything the README's example HUD reads in one frame. */
+	@Benchmark
+	public void readExampleHud(Blackhole bh) {
+		SnapshotView view = session.view();
+		bh.consume(view.paused());
+		bh.consume(view.trackName());
+		bh.consume(view.albumType());
+		bh.consume(view.albumName());
+		bh.consume(view.artists()[0]);
+		bh.consume(view.playlistName());
+		bh.consume(view.shuffle());
+		bh.consume(view.repeat());
+		ProgressText.Formatted progress = ProgressText.get(clock.progressMs(), view.durationMs());
+		bh.consume(progress.progress());
+		bh.consume(progress.duration());
+		ValueGetter[] queue = view.queue();
+		for (int i = 0;i<Math.min(3, queue.length);i++)
+			bh.consume(queue[i].get("track"));
+	}
+}
@@ -0,0 +1,45 @@
+package dev.ngspace.hudder.spotifier.spotifyapi;
+
+import java.net.URI;
+import java.net.http.HttpClient.Version;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Map;
+import java.util.Optional;
+
+import javax.net.ssl.SSLSession;
+
+/** A canned response, so the benchmarks can feed fixtures to code that takes an {@link HttpResponse}. */
+public record FixtureResponse(int statusCode, byte[] body) implements HttpResponse<byte[]> {
+
+    @Override
+    public HttpRequest request() {
+        return HttpRequest.newBuilder(uri()).build();
+    }
+
+    @Override
+    public Optional<HttpResponse<byte[]>> previousResponse() {
+        return Optional.empty();
+    }
+
+    @Override
+    public HttpHeaders headers() {
+        return HttpHeaders.of(Map.of(), (_, _) -> true);
+    }
+
+    @Override
+    public Optional<SSLSession> sslSession() {
+        return Optional.empty();
+    }
+
+    @Override
+    public URI uri() {
+        return URI.create("https://api.spotify.com/v1/me/player");
+    }
+
+    @Override
+    public Version version() {
+        return Version.HTTP_2;
+    }
+}
@@ -0,0 +1,74 @@
+package dev.ngspace.hudder.spotifier.spotifyapi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import dev.ngspace.hudder.spotifier.spotifyapi.BodyDigest.PlayerDigest;
+import dev.ngspace.hudder.spotifier.spotifyapi.SpotifyAPI.ParsedPlayer;
+
+/**
+ * Recorded Spotify responses (ids and urls scrambled) for the benchmarks:
+ * <ul>
+ * <li>{@code player_track} - /me/player playing a song from a playlist</li>
+ * <li>{@code player_episode} - /me/player playing a podcast episode</li>
+ * <li>{@code player_204} - /me/player with nothing playing</li>
+ * <li>{@code player_key_names} - player_track with the key names progress_ms and timestamp as song, album, artist and device names</li>
+ * <li>{@code queue_20} - /me/player/queue with 20 full tracks</li>
+ * <li>{@code queue_escapes} - the first 3 songs of queue_20 with escaped quotes, backslashes and unicode in their names</li>
+ * <li>{@code queue_empty}, {@code queue_null} - /me/player/queue with an empty and a null queue</li>
+ * <li>{@code playlist_large} - a playlist with its first page of 100 tracks, what we got before asking for fields=name</li>
+ * </ul>
+ */
+public class Fixtures {private Fixtures() {}
+
+    public static byte[] load(String name) {
+        try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name + ".json")) {
+            if (in == null) throw new IllegalArgumentException("No fixture named " + name);
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The queue response as it would look after the next song started: the first song gone and a
+     * new one at the end. Both it and the queue before it are written out by org.json, so the
+     * songs they share have the same bytes, pair it with {@link #rewrite(byte[])} of the same queue.
+     */
+    public static byte[] shiftQueue(byte[] queue) {
+        JSONObject json = new JSONObject(new String(queue, StandardCharsets.UTF_8));
+        JSONArray songs = json.getJSONArray("queue");
+        JSONObject added = new JSONObject(songs.getJSONObject(0).toString());
+        added.put("name", added.getString("name") + " (Live)");
+        songs.remove(0);
+        songs.put(added);
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** The response written out again by org.json, see {@link #shiftQueue(byte[])}. */
+    public static byte[] rewrite(byte[] body) {
+        return new JSONObject(new String(body, StandardCharsets.UTF_8)).toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** A /tracks response for the songs of a queue, the queue has the same full track objects. */
+    public static byte[] tracks(byte[] queue) {
+        JSONObject json = new JSONObject(new String(queue, StandardCharsets.UTF_8));
+        return new JSONObject().put("tracks", json.getJSONArray("queue")).toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** A snapshot built from player_track and queue_20, the way a poll would build it. */
+    public static NowPlaying nowPlaying() {
+        byte[] player = load("player_track");
+        PlayerDigest digest = BodyDigest.digestPlayer(player);
+        ParsedPlayer parsed = SpotifyAPI.parsePlayer(digest.hash(), player);
+        SongQueue queue = SongQueue.index(load("queue_20"), 20, null);
+        Instant now = Instant.now();
+        return SpotifyAPI.buildNowPlaying(parsed, digest, "Today's Top Hits", queue, now, now.minusMillis(120));
+    }
+}
@@ -0,0 +1,163 @@
+package dev.ngspace.hudder.spotifier.spotifyapi;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.ngspace.hudder.spotifier.spotifyapi.BodyDigest.PlayerDigest;
+import dev.ngspace.hudder.spotifier.spotifyapi.SpotifyAPI.ParsedPlayer;
+import dev.ngspace.hudder.spotifier.spotifyapi.SpotifyAPI.TrackFields;
+
+/**
+ * Every stage between a response arriving and a {@link NowPlaying} being built.
+ * Run with {@code ./gradlew jmh}, the gc profiler adds the allocation rate of each one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+    private byte[] track;
+    private byte[] episode;
+    private byte[] trackItem;
+    private byte[] queue;
+    private byte[] playlist;
+    private FixtureResponse noContent;
+
+    private PlayerDigest trackDigest;
+    private ParsedPlayer parsedTrack;
+    private SongQueue parsedQueue;
+    private SongQueue rewrittenQueue;
+    private byte[] shiftedQueue;
+    private byte[] tracks;
+
+    @Setup
+    public void setup() {
+        track = Fixtures.load("player_track");
+        episode = Fixtures.load("player_episode");
+        queue = Fixtures.load("queue_20");
+        playlist = Fixtures.load("playlist_large");
+        noContent = new FixtureResponse(204, Fixtures.load("player_204"));
+
+        JSONObject item = new JSONObject(new String(track, StandardCharsets.UTF_8)).getJSONObject("item");
+        trackItem = item.toString().getBytes(StandardCharsets.UTF_8);
+
+        trackDigest = BodyDigest.digestPlayer(track);
+        parsedTrack = SpotifyAPI.parsePlayer(trackDigest.hash(), track);
+        parsedQueue = SongQueue.index(queue, 20, null);
+        rewrittenQueue = SongQueue.index(Fixtures.rewrite(queue), 20, null);
+        rewrittenQueue.toArray();
+        shiftedQueue = Fixtures.shiftQueue(queue);
+        tracks = Fixtures.tracks(queue);
+    }
+
+    // --- Player -----------------------------------------------------------------
+
+    @Benchmark
+    public PlayerDigest digestTrack() {
+        return BodyDigest.digestPlayer(track);
+    }
+
+    @Benchmark
+    public ParsedPlayer parseTrack() {
+        return SpotifyAPI.parsePlayer(trackDigest.hash(), track);
+    }
+
+    @Benchmark
+    public ParsedPlayer parseEpisode() {
+        return SpotifyAPI.parsePlayer(0, episode);
+    }
+
+    /** What most polls cost: digest the body, find that only the progress changed. */
+    @Benchmark
+    public ParsedPlayer unchangedTrack() {
+        return SpotifyAPI.parsePlayerIfChanged(BodyDigest.digestPlayer(track), track);
+    }
+
+    @Benchmark
+    public Optional<byte[]> noContent() {
+        return SpotifyAPI.validatePlayer(noContent);
+    }
+
+    @Benchmark
+    public TrackFields extractTrack() {
+        return SpotifyAPI.extractTrack(new JsonCursor(trackItem));
+    }
+
+    /** What parsing the player response used to cost, for comparison. */
+    @Benchmark
+    public JSONObject orgJsonTrack() {
+        return new JSONObject(new String(track, StandardCharsets.UTF_8));
+    }
+
+    // --- Queue and playlist -----------------------------------------------------
+
+    /** What a changed queue costs when the HUD shows none of it. */
+    @Benchmark
+    public SongQueue indexQueue() {
+        return SongQueue.index(queue, 20, null);
+    }
+
+    /** What a changed queue costs when the HUD shows three songs, like the example HUD. */
+    @Benchmark
+    public NextSong readQueueOf3() {
+        SongQueue songs = SongQueue.index(queue, 20, null);
+        songs.get(0);
+        songs.get(1);
+        return songs.get(2);
+    }
+
+    /** Decoding every song, what every changed queue used to cost. */
+    @Benchmark
+    public NextSong[] decodeQueue() {
+        return SongQueue.index(queue, 20, null).toArray();
+    }
+
+    /** The queue after a track change: moved on by one, all but the last song reused from the last one. */
+    @Benchmark
+    public NextSong[] decodeShiftedQueue() {
+        return SongQueue.index(shiftedQueue, 20, rewrittenQueue).toArray();
+    }
+
+    /** The check that lets an unchanged queue skip parsing. */
+    @Benchmark
+    public long hashQueue() {
+        return BodyDigest.hash(queue);
+    }
+
+    /** The details of a whole queue, what one /tracks batch costs. */
+    @Benchmark
+    public List<TrackDetails> parseTrackDetails() {
+        return SpotifyAPI.parseTrackDetails(tracks);
+    }
+
+    @Benchmark
+    public String parseLargePlaylistName() {
+        return SpotifyAPI.parsePlaylistName(playlist);
+    }
+
+    // --- Snapshot ---------------------------------------------------------------
+
+    @Benchmark
+    public NowPlaying buildNowPlaying() {
+        Instant now = Instant.now();
+        return SpotifyAPI.buildNowPlaying(parsedTrack, trackDigest, "Today's Top Hits", parsedQueue, now, now);
+    }
+}
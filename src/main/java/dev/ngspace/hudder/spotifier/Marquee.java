@@ -0,0 +1,135 @@
+package dev.ngspace.hudder.spotifier;
+
+import java.util.function.ToIntFunction;
+
+import dev.ngspace.hudder.spotifier.config.SpotifierConfig;
+
+/**
+ * Makes a string fit in {@link SpotifierConfig#marquee_width} pixels, either by scrolling through it
+ * (the spotifier_*_marquee variables) or by cutting it short (spotifier_*_fit). One per variable.
+ * The glyphs are measured once per string, and the visible part is only rebuilt when the scroll
+ * has actually moved on to the next character.
+ */
+public class Marquee {
+
+	/** Between the end of the text and its start coming around again */
+	public static final String GAP = "     ";
+	public static final String ELLIPSIS = "...";
+	/** How long the start of the text stays put before scrolling, every time it comes around */
+	public static final long HOLD_MS = 2000;
+
+	/** What a glyph of the default font takes up, spacing included, used when there is no font to ask */
+	private static final int DEFAULT_GLYPH_WIDTH = 6;
+	private static volatile ToIntFunction<String> measurer = s->s.codePointCount(0, s.length())*DEFAULT_GLYPH_WIDTH;
+
+	private volatile Measured measured;
+	private volatile Window window;
+
+	/** Measures with the given font (the game's) from now on instead of guessing. */
+	public static void measureWith(ToIntFunction<String> font) {
+		measurer = font;
+	}
+
+	/** The part of the text that's visible right now, the text itself if it fits. */
+	public String scroll(String text) {
+		if (text==null)
+			return null;
+		Measured m = measure(text);
+		if (m.fits)
+			return text;
+		int speed = SpotifierConfig.marquee_speed;
+		if (speed<=0)
+			return m.fit;
+
+		int offset = m.offsetAt(System.nanoTime(), speed);
+		Window w = window;
+		if (w!=null&&w.measured==m&&w.offset==offset)
+			return w.text;
+		String visible = m.window(offset);
+		window = new Window(m, offset, visible);
+		return visible;
+	}
+
+	/** The text cut short with an {@link #ELLIPSIS} if it doesn't fit. */
+	public String fit(String text) {
+		return text==null ? null : measure(text).fit;
+	}
+
+	private Measured measure(String text) {
+		int width = Math.max(0, SpotifierConfig.marquee_width);
+		ToIntFunction<String> font = measurer;
+		Measured m = measured;
+		if (m!=null&&m.width==width&&m.font==font&&(m.text==text||m.text.equals(text)))
+			return m;
+		m = new Measured(text, width, font, System.nanoTime());
+		measured = m;
+		return m;
+	}
+
+	private static final class Measured {
+
+		final String text;
+		final int width;
+		final ToIntFunction<String> font;
+		/** When this text was first seen, the scroll starts from there */
+		final long since;
+		/** The code points of the text and the gap after it, and how wide each of them is */
+		final int[] codePoints;
+		final int[] advances;
+		final boolean fits;
+		final String fit;
+
+		Measured(String text, int width, ToIntFunction<String> font, long since) {
+			this.text = text;
+			this.width = width;
+			this.font = font;
+			this.since = since;
+
+			codePoints = (text+GAP).codePoints().toArray();
+			advances = new int[codePoints.length];
+			int length = text.codePointCount(0, text.length());
+			int textWidth = 0;
+			for (int i = 0;i<codePoints.length;i++) {
+				advances[i] = font.applyAsInt(Character.toString(codePoints[i]));
+				if (i<length)
+					textWidth += advances[i];
+			}
+			fits = textWidth<=width;
+			fit = fits ? text : cut(width-font.applyAsInt(ELLIPSIS))+ELLIPSIS;
+		}
+
+		/** How many characters in the scroll is at the time, holding at the start of every loop. */
+		int offsetAt(long now, int speed) {
+			long step = 1_000_000_000L/speed;
+			long hold = HOLD_MS*1_000_000L;
+			long t = Math.floorMod(now-since, hold+codePoints.length*step);
+			return t<hold ? 0 : (int) Math.min(codePoints.length-1, (t-hold)/step);
+		}
+
+		/** The characters from the offset on that fit, wrapping around to the start. */
+		String window(int offset) {
+			StringBuilder sb = new StringBuilder();
+			int used = 0;
+			for (int i = 0;i<codePoints.length;i++) {
+				int at = (offset+i)%codePoints.length;
+				if (used+advances[at]>width)
+					break;
+				sb.appendCodePoint(codePoints[at]);
+				used += advances[at];
+			}
+			return sb.toString();
+		}
+
+		private String cut(int room) {
+			int used = 0;
+			int n = 0;
+			while (n<codePoints.length&&used+advances[n]<=room) {
+				used += advances[n];
+				n++;
+			}
+			return new String(codePoints, 0, n);
+		}
+	}
+
+	private record Window(Measured measured, int offset, String text) {}
+}
@@ -0,0 +1,180 @@
+package dev.ngspace.hudder.spotifier;
+
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import dev.ngspace.hudder.spotifier.config.SpotifierConfig;
+import dev.ngspace.hudder.spotifier.spotifyapi.NowPlaying;
+import dev.ngspace.hudder.spotifier.spotifyapi.PlaybackClock;
+import dev.ngspace.hudder.spotifier.spotifyapi.RequestBudget;
+import dev.ngspace.hudder.spotifier.spotifyapi.RequestDeniedException;
+import dev.ngspace.hudder.spotifier.spotifyapi.SpotifyTransport;
+
+/**
+ * Polls Spotify on a background thread and picks the time of the next poll from the playback state
+ * instead of a fixed timer: rarely when paused or when nothing is playing, right at the predicted end
+ * of the track, slowly in the middle of long tracks and at {@link SpotifierConfig#pull_rate} for a
+ * short while after a change was seen. Never polls before the {@link RequestBudget} lets requests through again.
+ */
+public class PollScheduler {
+
+	/** Delay when nothing is playing (HTTP 204) */
+	public static final long IDLE_DELAY = 15000;
+	/** Delay while paused */
+	public static final long PAUSED_DELAY = 10000;
+	/** The longest we wait while playing, anything longer would miss skips for too long */
+	public static final long MAX_PLAYING_DELAY = 15000;
+	/** How long after the predicted end of the track to poll */
+	public static final long TRACK_END_MARGIN = 250;
+	/** How long to poll at {@link SpotifierConfig#pull_rate} after a change was seen */
+	public static final long BOOST_PERIOD = 10000;
+	/** Delay after a failed poll */
+	public static final long ERROR_DELAY = 5000;
+	/** Delay while there is no access token to poll with */
+	public static final long UNAUTHENTICATED_DELAY = 2000;
+	/** The shortest delay, whatever the config says */
+	public static final long MIN_DELAY = 500;
+
+	/** Only one poll runs at a time, so sharing the pool doesn't need more than the locks below */
+	private final ScheduledExecutorService executor = SpotifyTransport.EXECUTOR;
+
+	private final Supplier<CompletableFuture<Optional<NowPlaying>>> poller;
+	private final PlaybackClock clock;
+	private final Predicate<NowPlaying> publisher;
+
+	private ScheduledFuture<?> next;
+	private boolean polling;
+	private boolean woken;
+	private NowPlaying last;
+	private long boostUntil;
+	/** The delay after the last poll held back under a prediction, 0 if the last one was shown */
+	private long heldDelay;
+
+	/**
+	 * @param poller starts a poll, returns null if there is nothing to poll with (not authenticated)
+	 * @param clock the clock to feed the results into
+	 * @param publisher told about every successful poll, null if nothing is playing. Returns false if it
+	 * kept showing something newer instead (a predicted track change), which is then confirmed right away
+	 */
+	public PollScheduler(Supplier<CompletableFuture<Optional<NowPlaying>>> poller, PlaybackClock clock,
+			Predicate<NowPlaying> publisher) {
+		this.poller = poller;
+		this.clock = clock;
+		this.publisher = publisher;
+	}
+
+	public void start() {
+		schedule(0);
+	}
+
+	/** Runs the setup in the background, then starts polling. Polling starts even if the setup fails. */
+	public void start(Runnable setup) {
+		executor.execute(()->{
+			try {
+				setup.run();
+			} catch (Exception e) {
+				Spotifier.LOGGER.error("Failed to start Spotifier", e);
+			}
+			start();
+		});
+	}
+
+	/** Polls as soon as possible, for example after authenticating. */
+	public synchronized void wake() {
+		if (polling)
+			woken = true;
+		else
+			schedule(0);
+	}
+
+	private synchronized void schedule(long delay) {
+		if (next!=null)
+			next.cancel(false);
+		next = executor.schedule(this::poll, delay, TimeUnit.MILLISECONDS);
+	}
+
+	private void poll() {
+		synchronized (this) {
+			polling = true;
+		}
+		CompletableFuture<Optional<NowPlaying>> future;
+		try {
+			future = poller.get();
+		} catch (Exception e) {
+			future = CompletableFuture.failedFuture(e);
+		}
+		if (future==null) {
+			finish(UNAUTHENTICATED_DELAY);
+			return;
+		}
+		future.whenComplete((result, error) -> {
+			long delay = ERROR_DELAY;
+			try {
+				if (error!=null) {
+					// Denied requests know when they'd be let through, other failures are backed off by the budget
+					delay = Math.max(ERROR_DELAY, RequestDeniedException.retryInOf(error));
+				} else {
+					NowPlaying latest = result.orElse(null);
+					clock.update(latest);
+					if (publisher.test(latest)) {
+						heldDelay = 0;
+						delay = nextDelay(latest);
+					} else {
+						// A poll from just before the predicted track change, the next one should see the change.
+						// Backs off in case it doesn't, a wrong prediction shouldn't use up the budget
+						heldDelay = heldDelay==0 ? MIN_DELAY : Math.min(heldDelay*2, MAX_PLAYING_DELAY);
+						delay = heldDelay;
+					}
+					last = latest;
+				}
+			} catch (RuntimeException e) {
+				Spotifier.LOGGER.error("Failed to handle a Spotify poll, polling again in {}ms", ERROR_DELAY, e);
+				delay = ERROR_DELAY;
+			} finally {
+				// Whatever happened above, there has to be a next poll or the HUD stops updating
+				finish(Math.max(delay, RequestBudget.retryInMs()));
+			}
+		});
+	}
+
+	private synchronized void finish(long delay) {
+		polling = false;
+		schedule(woken ? 0 : delay);
+		woken = false;
+	}
+
+	private long nextDelay(NowPlaying latest) {
+		long now = System.currentTimeMillis();
+		if (changed(last, latest))
+			boostUntil = now + BOOST_PERIOD;
+
+		if (latest==null)
+			return IDLE_DELAY;
+
+		long fastest = Math.max(MIN_DELAY, SpotifierConfig.pull_rate);
+		if (!latest.isPlaying())
+			return now<boostUntil ? fastest : Math.max(fastest, PAUSED_DELAY);
+
+		// From the poll itself, the clock may be showing a predicted track by now
+		long progress = latest.progressMs() + Math.max(0, now - latest.pullTime().toEpochMilli());
+		long remaining = Math.max(0, latest.durationMs() - progress);
+		long delay = now<boostUntil ? fastest : Math.max(fastest, Math.min(MAX_PLAYING_DELAY, remaining / 4));
+		return Math.max(MIN_DELAY, Math.min(delay, remaining + TRACK_END_MARGIN));
+	}
+
+	private static boolean changed(NowPlaying previous, NowPlaying latest) {
+		if (previous==null||latest==null)
+			return previous!=latest;
+		return previous.isPlaying()!=latest.isPlaying()
+				|| previous.shuffle()!=latest.shuffle()
+				|| !Objects.equals(previous.trackUrl(), latest.trackUrl())
+				|| !Objects.equals(previous.repeat(), latest.repeat())
+				|| !Objects.equals(previous.playlistId(), latest.playlistId());
+	}
+}
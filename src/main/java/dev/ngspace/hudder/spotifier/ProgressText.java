@@ -0,0 +1,56 @@
+package dev.ngspace.hudder.spotifier;
+
+import dev.ngspace.hudder.spotifier.config.SpotifierConfig;
+
+/**
+ * The time and progress variables, formatted once per displayed second instead of on every read
+ * (or worse, in HUD script on every frame).
+ */
+public class ProgressText {private ProgressText() {}
+	
+	private static volatile Formatted cache;
+	
+	/** The formatted values for the progress, reused for as long as the second, duration and bar settings stay the same. */
+	public static Formatted get(long progressMs, long durationMs) {
+		long progress = Math.max(0, Math.min(progressMs, durationMs));
+		long second = progress/1000;
+		int width = Math.max(0, SpotifierConfig.progress_bar_width);
+		String filled = SpotifierConfig.progress_bar_filled;
+		String empty = SpotifierConfig.progress_bar_empty;
+		
+		Formatted f = cache;
+		if (f!=null&&f.second==second&&f.durationMs==durationMs&&f.width==width&&f.filled==filled&&f.empty==empty)
+			return f;
+		
+		double ratio = durationMs<=0 ? 0 : (double) progress/durationMs;
+		f = new Formatted(second, durationMs, width, filled, empty,
+				clock(second), clock(durationMs/1000), clock(Math.max(0, durationMs/1000-second)),
+				ratio, bar(ratio, width, filled, empty));
+		cache = f;
+		return f;
+	}
+	
+	/** m:ss, or h:mm:ss for an hour or more (podcasts). */
+	public static String clock(long seconds) {
+		long h = seconds/3600;
+		long m = seconds/60%60;
+		long s = seconds%60;
+		StringBuilder sb = new StringBuilder(8);
+		if (h>0)
+			sb.append(h).append(':').append(m<10 ? "0" : "");
+		sb.append(m).append(':').append(s<10 ? "0" : "").append(s);
+		return sb.toString();
+	}
+	
+	private static String bar(double ratio, int width, String filled, String empty) {
+		int full = (int) Math.round(ratio*width);
+		StringBuilder sb = new StringBuilder(width*Math.max(filled.length(), empty.length()));
+		for (int i = 0;i<width;i++)
+			sb.append(i<full ? filled : empty);
+		return sb.toString();
+	}
+	
+	/** Numbers are boxed here once, like the rest of {@link SnapshotView}. */
+	public record Formatted(long second, long durationMs, int width, String filled, String empty,
+			String progress, String duration, String remaining, Double ratio, String bar) {}
+}
@@ -0,0 +1,33 @@
+package dev.ngspace.hudder.spotifier;
+
+import dev.ngspace.hudder.spotifier.auth.SpotifyAuth;
+import dev.ngspace.hudder.spotifier.spotifyapi.NowPlaying;
+
+/**
+ * Everything the variables read, published as a whole through an atomic reference
+ * so readers never lock and never see half of an update.
+ * Whether we're connected and the {@link SnapshotView} are worked out once when the state is created.
+ */
+public record SessionState(SpotifyAuth auth, NowPlaying playing, boolean connected, SnapshotView view) {
+	
+	public static final SessionState EMPTY = of(null, null);
+	
+	public static SessionState of(SpotifyAuth auth, NowPlaying playing) {
+		boolean connected = auth!=null&&auth.getAccessToken()!=null;
+		return new SessionState(auth, playing, connected, playing==null ? null : SnapshotView.of(playing));
+	}
+	
+	public SessionState withAuth(SpotifyAuth auth) {
+		boolean connected = auth!=null&&auth.getAccessToken()!=null;
+		return new SessionState(auth, playing, connected, view);
+	}
+	
+	public SessionState withPlaying(NowPlaying playing) {
+		return of(auth, playing);
+	}
+	
+	/** The access token, or null if we aren't authenticated. */
+	public String accessToken() {
+		return auth==null ? null : auth.getAccessToken();
+	}
+}
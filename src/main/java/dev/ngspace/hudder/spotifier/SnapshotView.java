@@ -0,0 +1,127 @@
+package dev.ngspace.hudder.spotifier;
+
+import dev.ngspace.hudder.spotifier.art.AlbumArt;
+import dev.ngspace.hudder.spotifier.art.AlbumArtCache;
+import dev.ngspace.hudder.spotifier.spotifyapi.NextSong;
+import dev.ngspace.hudder.spotifier.spotifyapi.NowPlaying;
+import dev.ngspace.hudder.spotifier.spotifyapi.SongQueue;
+import dev.ngspace.hudder.spotifier.spotifyapi.SpotifyAPI;
+import dev.ngspace.hudder.spotifier.spotifyapi.TrackDetails;
+import dev.ngspace.hudder.utils.ValueGetter;
+
+/**
+ * The values of the variables, computed once per {@link NowPlaying} so that reading a variable is just a field load.
+ * Numbers and booleans are boxed ahead of time for the same reason.
+ */
+public record SnapshotView(
+	NowPlaying playing,
+	Boolean paused,
+	Boolean shuffle,
+	String repeat,
+	String trackName,
+	String albumName,
+	String albumType,
+	String playlistName,
+	String[] artists,
+	Long durationMs,
+	long pullTimeMillis,
+	ValueGetter[] queue,
+	Details details
+) {
+	
+	public static SnapshotView of(NowPlaying playing) {
+		SongQueue next = playing.queue();
+		ValueGetter[] queue = new ValueGetter[next==null ? 0 : next.size()];
+		for (int i = 0;i<queue.length;i++)
+			queue[i] = new QueueEntry(next, i);
+		
+		return new SnapshotView(playing, !playing.isPlaying(), playing.shuffle(), playing.repeat(),
+				playing.trackName(), playing.albumName(), playing.albumType(), playing.playlistName(),
+				playing.artists(), playing.durationMs(), playing.pullTime().toEpochMilli(), queue,
+				new Details(playing.trackUrl()));
+	}
+	
+	/** How old the snapshot is, in milliseconds. */
+	public long dataAge() {
+		return System.currentTimeMillis()-pullTimeMillis;
+	}
+	
+	/**
+	 * An element of spotifier_queue, the song is only decoded once one of its keys is read.
+	 * album_art is only there once it's been prefetched, the {@link Details} once they've been fetched
+	 */
+	public static class QueueEntry implements ValueGetter {
+		
+		private final SongQueue queue;
+		private final int index;
+		/** Set on the first read, with the duration boxed once like the rest of the view */
+		private volatile Decoded decoded;
+		
+		public QueueEntry(SongQueue queue, int index) {
+			this.queue = queue;
+			this.index = index;
+		}
+		
+		private static String albumArt(NextSong song) {
+			AlbumArt art = AlbumArtCache.getIfLoaded(song.albumArtUrl());
+			return art==null ? null : art.textureId();
+		}
+		
+		@Override
+		public Object get(String key) {
+			Decoded d = decoded;
+			if (d==null) {
+				NextSong song = queue.get(index);
+				if (song==null)
+					return null;
+				decoded = d = new Decoded(song, song.durationMs(), new Details(song.trackUrl()));
+			}
+			NextSong song = d.song;
+			return switch (key) {
+				case "track" -> song.trackName();
+				case "artists" -> song.artists();
+				case "album" -> song.albumName();
+				case "duration" -> d.durationMs;
+				case "album_type" -> song.albumType();
+				case "album_art" -> albumArt(song);
+				default -> d.details.get(key);
+			};
+		}
+		
+		private record Decoded(NextSong song, Long durationMs, Details details) {}
+	}
+	
+	/**
+	 * The {@link TrackDetails} of a track: popularity, explicit, release_date, disc_number, track_number
+	 * and isrc. They're looked up until they've been fetched, and kept from then on.
+	 */
+	public static class Details implements ValueGetter {
+		
+		private final String trackUrl;
+		private volatile TrackDetails details;
+		
+		public Details(String trackUrl) {
+			this.trackUrl = trackUrl;
+		}
+		
+		@Override
+		public Object get(String key) {
+			TrackDetails d = details;
+			if (d==null) {
+				d = SpotifyAPI.trackDetails(trackUrl);
+				if (d==null)
+					return null;
+				details = d;
+			}
+			return switch (key) {
+				case "popularity" -> d.popularity();
+				case "explicit" -> d.explicit();
+				case "release_date" -> d.releaseDate();
+				case "disc_number" -> d.discNumber();
+				case "track_number" -> d.trackNumber();
+				case "isrc" -> d.isrc();
+				default -> null;
+			};
+		}
+	}
+}
@@ -2,25 +2,38 @@ package dev.ngspace.hudder.spotifier;
 
 import java.io.IOException;
 import java.net.URI;
-import java.time.Duration;
-import java.time.Instant;
-import java.util.Arrays;
-import java.util.Optional;
-import java.util.function.Supplier;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import dev.ngspace.hudder.api.variableregistry.DataVariable;
 import dev.ngspace.hudder.api.variableregistry.DataVariableRegistry;
 import dev.ngspace.hudder.api.variableregistry.VariableTypes;
-import dev.ngspace.hudder.main.HudCompilationManager;
+import dev.ngspace.hudder.spotifier.art.AlbumArt;
+import dev.ngspace.hudder.spotifier.art.AlbumArtCache;
 import dev.ngspace.hudder.spotifier.auth.SpotifyAuth;
+import dev.ngspace.hudder.spotifier.auth.TokenManager;
 import dev.ngspace.hudder.spotifier.config.SpotifierConfig;
+import dev.ngspace.hudder.spotifier.events.SpotifierEvents;
+import dev.ngspace.hudder.spotifier.jfr.SnapshotPublishEvent;
+import dev.ngspace.hudder.spotifier.jfr.VariableReads;
+import dev.ngspace.hudder.spotifier.spotifyapi.NextSong;
 import dev.ngspace.hudder.spotifier.spotifyapi.NowPlaying;
+import dev.ngspace.hudder.spotifier.spotifyapi.PersistentCache;
+import dev.ngspace.hudder.spotifier.spotifyapi.PlaybackClock;
+import dev.ngspace.hudder.spotifier.spotifyapi.RequestBudget;
+import dev.ngspace.hudder.spotifier.spotifyapi.SongQueue;
+import dev.ngspace.hudder.spotifier.spotifyapi.SpotifierMetrics;
 import dev.ngspace.hudder.spotifier.spotifyapi.SpotifyAPI;
-import dev.ngspace.hudder.utils.ValueGetter;
+import dev.ngspace.hudder.spotifier.spotifyapi.SpotifyHttpException;
+import dev.ngspace.hudder.spotifier.spotifyapi.SpotifyTransport;
+import net.fabricmc.api.EnvType;
 import net.fabricmc.api.ModInitializer;
+import net.fabricmc.loader.api.FabricLoader;
+import net.minecraft.client.Minecraft;
 import net.minecraft.util.Util;
 
 public class Spotifier implements ModInitializer {
@@ -30,154 +43,272 @@ public class Spotifier implements ModInitializer {
 
 	public static final Logger LOGGER = LoggerFactory.getLogger(MOD_ID);
 	
-	private static final Object AUTH_LOCK = new Object();
-	private static SpotifyAuth auth;
-	private NowPlaying playing;
+	/** Everything the variables read, swapped atomically so reading never locks. */
+	private static final AtomicReference<SessionState> SESSION = new AtomicReference<>(SessionState.EMPTY);
 	
-	private Instant lastRefresh = Instant.now();
-	
-	RateLimitedVariable<Optional<NowPlaying>> apifetcher = new RateLimitedVariable<Optional<NowPlaying>>(()-> {
-		synchronized (AUTH_LOCK) {
-			if (isValid())
-				return SpotifyAPI.fetchAndReturnPrevious(auth.getAccessToken());
-			return Optional.empty();
-		}
+	private static final TokenManager TOKENS = new TokenManager(auth->{
+		SESSION.updateAndGet(s->s.withAuth(auth));
+		PersistentCache.saveSoon();
 	});
+	private static final PlaybackClock CLOCK = new PlaybackClock();
+	private static final TrackPredictor PREDICTOR = new TrackPredictor(CLOCK, Spotifier::prefetch, Spotifier::publish);
+	private static final Marquee TRACK_MARQUEE = new Marquee();
+	private static final Marquee ALBUM_MARQUEE = new Marquee();
+	private static final Marquee PLAYLIST_MARQUEE = new Marquee();
+	
+	/** How many of the next songs in the queue to load the album art of ahead of time */
+	private static final int ART_PREFETCH = 3;
+	/** Album art needs the client, it's turned on by {@link #onInitialize()} there */
+	private static volatile boolean albumArt;
+	/** Set once the config and the cache are loaded */
+	private static volatile boolean started;
+	/** Whether the snapshot shown is left over from before the last poll failed (or from the last run) */
+	private static volatile boolean stale = true;
+	
+	private static final PollScheduler POLLER = new PollScheduler(()-> {
+		String token = SESSION.get().accessToken();
+		if (token==null)
+			return null;
+		return SpotifyAPI.poll(token).whenComplete((_, error)->{
+			stale = error!=null;
+			if (SpotifyHttpException.statusOf(error)==401)
+				TOKENS.onUnauthorized(token);
+			String summary = SpotifierMetrics.summaryIfDue();
+			if (summary!=null)
+				LOGGER.info(summary);
+		});
+	}, CLOCK, PREDICTOR::polled);
 
 	@Override
 	public void onInitialize() {
 		LOGGER.info("Loading Spotifier");
 		DataVariableRegistry.registerVariable(_->true, VariableTypes.BOOLEAN, "has_spotifier");
 		DataVariableRegistry.registerVariable(_->isValid(), VariableTypes.BOOLEAN, "spotifier_connected");
-		DataVariableRegistry.registerVariable(_->playing, VariableTypes.OBJECT, "spotifier");
+		DataVariableRegistry.registerVariable(_->status(), VariableTypes.STRING, "spotifier_status");
+		DataVariableRegistry.registerVariable(_->SESSION.get().playing(), VariableTypes.OBJECT, "spotifier");
+		DataVariableRegistry.registerVariable(_->SpotifierEvents.CHANGES, VariableTypes.OBJECT, "spotifier_changes");
 
 		
-		registerVariable(_->!playing.isPlaying(), VariableTypes.BOOLEAN, "spotifier_paused");
-		registerVariable(_->playing.shuffle(), VariableTypes.BOOLEAN, "spotifier_shuffle");
+		registerVariable(SnapshotView::paused, VariableTypes.BOOLEAN, "spotifier_paused");
+		registerVariable(SnapshotView::shuffle, VariableTypes.BOOLEAN, "spotifier_shuffle");
+		registerVariable(_->stale, VariableTypes.BOOLEAN, "spotifier_stale");
+		registerVariable(_->PREDICTOR.predicting(), VariableTypes.BOOLEAN, "spotifier_predicted");
 
-		registerVariable(_->playing.repeat(), VariableTypes.STRING, "spotifier_repeat");
-		registerVariable(_->playing.trackName(), VariableTypes.STRING, "spotifier_track");
-		registerVariable(_->playing.albumName(), VariableTypes.STRING, "spotifier_album");
-		registerVariable(_->playing.albumType(), VariableTypes.STRING, "spotifier_album_type");
-		registerVariable(_->playing.playlistName(), VariableTypes.STRING, "spotifier_playlist");
+		registerVariable(SnapshotView::repeat, VariableTypes.STRING, "spotifier_repeat");
+		registerVariable(SnapshotView::trackName, VariableTypes.STRING, "spotifier_track");
+		registerVariable(SnapshotView::albumName, VariableTypes.STRING, "spotifier_album");
+		registerVariable(SnapshotView::albumType, VariableTypes.STRING, "spotifier_album_type");
+		registerVariable(SnapshotView::playlistName, VariableTypes.STRING, "spotifier_playlist");
+		registerVariable(view->TRACK_MARQUEE.scroll(view.trackName()), VariableTypes.STRING, "spotifier_track_marquee");
+		registerVariable(view->ALBUM_MARQUEE.scroll(view.albumName()), VariableTypes.STRING, "spotifier_album_marquee");
+		registerVariable(view->PLAYLIST_MARQUEE.scroll(view.playlistName()), VariableTypes.STRING, "spotifier_playlist_marquee");
+		registerVariable(view->TRACK_MARQUEE.fit(view.trackName()), VariableTypes.STRING, "spotifier_track_fit");
+		registerVariable(view->ALBUM_MARQUEE.fit(view.albumName()), VariableTypes.STRING, "spotifier_album_fit");
+		registerVariable(view->PLAYLIST_MARQUEE.fit(view.playlistName()), VariableTypes.STRING, "spotifier_playlist_fit");
 		
-		registerVariable(_->playing.artists(), VariableTypes.OBJECT, "spotifier_artists");
+		registerVariable(SnapshotView::artists, VariableTypes.OBJECT, "spotifier_artists");
 
-		registerVariable(_->playing.progressMs(), VariableTypes.NUMBER, "spotifier_progress");
-		registerVariable(_->playing.durationMs(), VariableTypes.NUMBER, "spotifier_duration");
-		registerVariable(_->Duration.between(playing.pullTime(), Instant.now()).toMillis(), VariableTypes.NUMBER, "spotifier_data_age");
+		registerVariable(_->CLOCK.progressMs(), VariableTypes.NUMBER, "spotifier_progress");
+		registerVariable(SnapshotView::durationMs, VariableTypes.NUMBER, "spotifier_duration");
+		registerVariable(view->progress(view).progress(), VariableTypes.STRING, "spotifier_progress_text");
+		registerVariable(view->progress(view).duration(), VariableTypes.STRING, "spotifier_duration_text");
+		registerVariable(view->progress(view).remaining(), VariableTypes.STRING, "spotifier_remaining_text");
+		registerVariable(view->progress(view).ratio(), VariableTypes.NUMBER, "spotifier_progress_ratio");
+		registerVariable(view->progress(view).bar(), VariableTypes.STRING, "spotifier_progress_bar");
+		registerVariable(SnapshotView::dataAge, VariableTypes.NUMBER, "spotifier_data_age");
 		
-		registerVariable(_->Arrays.stream(playing.nextSongs())
-				.map(song -> (ValueGetter) key -> 
-					switch (key) {
-						case "track" -> song.trackName();
-						case "artists" -> song.artists();
-						case "album" -> song.albumName();
-						case "duration" -> song.durationMs();
-						case "album_type" -> song.albumType();
-						default -> null;
-					}
-				)
-				.toArray(), VariableTypes.OBJECT, "spotifier_queue");
-		SpotifierConfig.read();
+		registerVariable(SnapshotView::queue, VariableTypes.OBJECT, "spotifier_queue");
+		registerVariable(SnapshotView::details, VariableTypes.OBJECT, "spotifier_details");
 		
-		try {
-			if (SpotifierConfig.refresh_token!=null)
-				reauth();
-		} catch (IOException e) {
-			log("Failed to auth with refresh token");
-			e.printStackTrace();
-		}
+		albumArt = FabricLoader.getInstance().getEnvironmentType()==EnvType.CLIENT;
+		// The font is only there on the client too
+		if (albumArt)
+			Marquee.measureWith(text->Minecraft.getInstance().font.width(text));
+		registerVariable(view->art(view, AlbumArt::textureId), VariableTypes.STRING, "spotifier_album_art");
+		registerVariable(view->art(view, AlbumArt::color), VariableTypes.NUMBER, "spotifier_album_color");
+		registerVariable(view->art(view, AlbumArt::accent), VariableTypes.NUMBER, "spotifier_album_accent");
 		
-		HudCompilationManager.addPreCompilerListener(_->{
-			if (isValid())
-				playing=apifetcher.get().orElse(null);
-			if (Duration.between(lastRefresh, Instant.now()).toMinutes()>=10) {
-				try {
-					reauth();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-				lastRefresh = Instant.now();
-			}
+		// Readable whether or not we're connected
+		DataVariableRegistry.registerVariable(_->SpotifierMetrics.requests(), VariableTypes.NUMBER, "spotifier_stats_requests");
+		DataVariableRegistry.registerVariable(_->SpotifierMetrics.requestsPerMinute(), VariableTypes.NUMBER, "spotifier_stats_requests_per_minute");
+		DataVariableRegistry.registerVariable(_->SpotifierMetrics.errors(), VariableTypes.NUMBER, "spotifier_stats_errors");
+		DataVariableRegistry.registerVariable(_->SpotifierMetrics.statusCount(429), VariableTypes.NUMBER, "spotifier_stats_rate_limited");
+		DataVariableRegistry.registerVariable(_->SpotifierMetrics.POLLS.sum(), VariableTypes.NUMBER, "spotifier_stats_polls");
+		DataVariableRegistry.registerVariable(_->SpotifierMetrics.POLLS_SKIPPED.sum(), VariableTypes.NUMBER, "spotifier_stats_polls_skipped");
+		DataVariableRegistry.registerVariable(_->SpotifierMetrics.REQUESTS_DENIED.sum(), VariableTypes.NUMBER, "spotifier_stats_requests_denied");
+		DataVariableRegistry.registerVariable(_->RequestBudget.breaker().name().toLowerCase(), VariableTypes.STRING, "spotifier_stats_breaker");
+		DataVariableRegistry.registerVariable(_->SpotifierMetrics.latency(SpotifierMetrics.PLAYER).mean(), VariableTypes.NUMBER, "spotifier_stats_latency");
+		DataVariableRegistry.registerVariable(_->SpotifierMetrics.latency(SpotifierMetrics.PLAYER).percentile(0.95), VariableTypes.NUMBER, "spotifier_stats_latency_p95");
+		DataVariableRegistry.registerVariable(_->SpotifierMetrics.parseMicros().mean(), VariableTypes.NUMBER, "spotifier_stats_parse_us");
+		DataVariableRegistry.registerVariable(_->SpotifierMetrics.PLAYER_CACHE.rate(), VariableTypes.NUMBER, "spotifier_stats_player_cache");
+		DataVariableRegistry.registerVariable(_->SpotifierMetrics.QUEUE_CACHE.rate(), VariableTypes.NUMBER, "spotifier_stats_queue_cache");
+		DataVariableRegistry.registerVariable(_->SpotifierMetrics.PLAYLIST_CACHE.rate(), VariableTypes.NUMBER, "spotifier_stats_playlist_cache");
+		
+		// Nothing above touches the disk or the network, the rest happens in the background
+		POLLER.start(()->{
+			SpotifierConfig.read();
+			SpotifierConfig.watch(Spotifier::configEdited);
+			connect();
 		});
 	}
 
-	public void registerVariable(DataVariable<Object> variable, VariableTypes.Type<?> type, String... names) {
-		DataVariableRegistry.registerVariable(key->{
-			if (SpotifierConfig.client_id==null||!isValid())
-				throw new SpotifierException("Client ID not set");
-			if (playing==null)
-				return null;
-			return variable.getValue(key);
-		}, type, names);
+	/** Starts polling with the config as it is, the setup runs in the background. */
+	public static void start() {
+		POLLER.start(Spotifier::connect);
 	}
 	
-	public static void log(Object obj) {LOGGER.info(String.valueOf(obj));}
-
-	public static void refreshAllTokens() {
-		synchronized (AUTH_LOCK) {
-			log("Getting new tokens");
-			
-			if (SpotifierConfig.client_id==null||SpotifierConfig.client_id.isBlank())
-				throw new SpotifierException("Client ID is null or empty");
-			
-			auth = new SpotifyAuth(SpotifierConfig.client_id, SpotifierConfig.uri, SpotifierConfig.port);
-
-			URI url = auth.getAuthURI(SCOPES);
-			log("Spotifier auth url:\n" + url);
-			Util.getPlatform().openUri(url);
-			
-			new Thread(()->{
-				try {
-					auth.fetchTokenFromClientID(auth.awaitAuth());
-				} catch (Exception e) {
-					auth = null;
-					e.printStackTrace();
-				}
-			}).start();
+	/** Authenticates if there is a saved refresh token, showing the last snapshot of the previous run until then. */
+	private static void connect() {
+		Runtime.getRuntime().addShutdownHook(new Thread(()->{
+			SpotifierConfig.flush();
+			PersistentCache.save();
+			SpotifyTransport.shutdown();
+		}, "Spotifier Shutdown"));
+		NowPlaying restored = PersistentCache.load();
+		if (restored!=null) {
+			CLOCK.update(restored);
+			publish(restored);
 		}
+		
+		if (SpotifierConfig.refresh_token!=null)
+			reauth().thenRun(POLLER::wake);
+		started = true;
+	}
+	
+	/** Picks up a refresh token that was put in (or taken out of) the config by hand, the rest is read as it's used. */
+	private static void configEdited() {
+		SpotifyAuth auth = SESSION.get().auth();
+		String using = auth==null||auth.getTokens()==null ? null : auth.getTokens().refreshToken();
+		if (Objects.equals(using, SpotifierConfig.refresh_token))
+			return;
+		if (SpotifierConfig.refresh_token==null)
+			TOKENS.clear();
+		else
+			reauth().thenRun(POLLER::wake);
+	}
+	
+	/**
+	 * What spotifier_status says: "connecting" while starting or getting a token, "connected",
+	 * or "not_authorized" when there is no refresh token to get one with.
+	 */
+	public static String status() {
+		if (SESSION.get().connected())
+			return "connected";
+		if (started&&SpotifierConfig.refresh_token==null)
+			return "not_authorized";
+		return "connecting";
 	}
 
-	public static void reauth(String refreshToken) throws IOException {
-		synchronized (AUTH_LOCK) {
-			log("Refreshing Spotify access token");
-			SpotifyAuth newauth = new SpotifyAuth(SpotifierConfig.client_id, SpotifierConfig.uri, SpotifierConfig.port);
-			newauth.refreshAccessToken(refreshToken);
-			auth = newauth;
-		}
+	/**
+	 * Registers a variable that reads from the view of the latest snapshot,
+	 * throws when not connected and returns null when nothing is playing.
+	 */
+	public void registerVariable(Function<SnapshotView, Object> variable, VariableTypes.Type<?> type, String... names) {
+		DataVariableRegistry.registerVariable(_->{
+			long start = VariableReads.start();
+			try {
+				SessionState session = SESSION.get();
+				if (!session.connected())
+					throw new SpotifierException("connecting".equals(status()) ? "Spotifier is still connecting" : "Client ID not set");
+				SnapshotView view = session.view();
+				if (view==null)
+					return null;
+				return variable.apply(view);
+			} finally {
+				VariableReads.end(start);
+			}
+		}, type, names);
 	}
 	
-	private static void reauth() throws IOException {
-		reauth(SpotifierConfig.refresh_token);
+	private static ProgressText.Formatted progress(SnapshotView view) {
+		return ProgressText.get(CLOCK.progressMs(), view.durationMs());
 	}
 	
-	public static boolean isValid() {
-		return auth!=null;
+	/** Reads the album art of the snapshot, null while it's loading. */
+	private static Object art(SnapshotView view, Function<AlbumArt, Object> value) {
+		AlbumArt art = AlbumArtCache.current();
+		if (art==null||!art.url().equals(view.playing().albumArtUrl()))
+			return null;
+		return value.apply(art);
 	}
 	
-	/**
-	 * I was originally using LimitedRefreshSpeedData<T> but I don't want to rely too heavily on Hudder...
-	 * So I just copy pasted it here and made some changes
-	 */
-	static class RateLimitedVariable<T> {
+	private static void publish(NowPlaying playing) {
+		SnapshotPublishEvent event = new SnapshotPublishEvent();
+		event.begin();
+		NowPlaying previous = SESSION.getAndUpdate(s->s.withPlaying(playing)).playing();
+		event.end();
+		SpotifierEvents.update(previous, playing);
+		PersistentCache.saveSoon();
+		if (albumArt) {
+			AlbumArtCache.show(playing==null ? null : playing.albumArtUrl());
+			SongQueue next = playing==null ? null : playing.queue();
+			for (int i = 0;next!=null&&i<Math.min(ART_PREFETCH, next.size());i++) {
+				NextSong song = next.get(i);
+				if (song!=null)
+					AlbumArtCache.prefetch(song.albumArtUrl());
+			}
+		}
+		if (event.shouldCommit()) {
+			event.track = playing==null ? null : playing.trackName();
+			event.queueLength = playing==null||playing.queue()==null ? 0 : playing.queue().size();
+			event.commit();
+		}
+	}
+	
+	/** Loads what the song needs before it starts playing. */
+	private static void prefetch(NextSong song) {
+		if (albumArt)
+			AlbumArtCache.prefetch(song.albumArtUrl());
+		String token = SESSION.get().accessToken();
+		if (token!=null)
+			SpotifyAPI.prefetchDetails(token, song);
+	}
+	
+	public static void log(Object obj) {LOGGER.info(String.valueOf(obj));}
+
+	public static void refreshAllTokens() {
+		log("Getting new tokens");
 		
-		Instant lastupdate = Instant.now();
-		T data;
-		Supplier<T> updater;
+		if (SpotifierConfig.client_id==null||SpotifierConfig.client_id.isBlank())
+			throw new SpotifierException("Client ID is null or empty");
 		
-		public RateLimitedVariable(Supplier<T> updater) {
-			this.updater = updater;
-			this.data = updater.get();
-		}
+		SpotifyAuth auth = new SpotifyAuth(SpotifierConfig.client_id, SpotifierConfig.uri, SpotifierConfig.port);
+		TOKENS.clear();
+
+		URI url = auth.getAuthURI(SCOPES);
+		log("Spotifier auth url:\n" + url);
+		Util.getPlatform().openUri(url);
 		
-		public T get() {
-			Instant now = Instant.now();
-			if (Duration.between(lastupdate, now).toMillis()>SpotifierConfig.pull_rate) {//Has the data timed out?
-				data = updater.get();
-				lastupdate = Instant.now();
-			}
-			return data;
+		try {
+			auth.awaitAuth()
+				.thenCompose(auth::fetchTokenFromClientID)
+				.thenRun(()->{
+					TOKENS.set(auth);
+					POLLER.wake();
+				})
+				.exceptionally(error->{
+					LOGGER.error("Failed to authorize Spotifier", error);
+					return null;
+				});
+		} catch (IOException e) {
+			throw new SpotifierException(e, "Couldn't listen for the Spotify redirect on port " + SpotifierConfig.port);
 		}
 	}
+
+	/**
+	 * Refreshes the access token in the background with the saved refresh token,
+	 * the current token keeps being used until then.
+	 */
+	public static CompletableFuture<SpotifyAuth> reauth() {
+		return TOKENS.refresh();
+	}
+	
+	public static boolean isValid() {
+		return SESSION.get().connected();
+	}
+	
+	/** The latest session, never null. */
+	public static SessionState getSession() {
+		return SESSION.get();
+	}
 }
\ No newline at end of file
@@ -0,0 +1,129 @@
+package dev.ngspace.hudder.spotifier;
+
+import java.time.Instant;
+import java.util.Objects;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import dev.ngspace.hudder.spotifier.spotifyapi.NextSong;
+import dev.ngspace.hudder.spotifier.spotifyapi.NowPlaying;
+import dev.ngspace.hudder.spotifier.spotifyapi.PlaybackClock;
+import dev.ngspace.hudder.spotifier.spotifyapi.SongQueue;
+import dev.ngspace.hudder.spotifier.spotifyapi.SpotifyTransport;
+
+/**
+ * Sees track changes coming from the queue, so they show up when they happen and not a poll later.
+ * <ul>
+ * <li>{@link #PREFETCH_LEAD_MS} before the track ends, whatever the next song needs (album art, details)
+ * is loaded, so nothing is left to fetch once it starts</li>
+ * <li>When the track ends and no poll has shown the change yet, the next song is shown as if it had
+ * been polled, until a poll confirms or contradicts it. The {@link PollScheduler} already polls right then</li>
+ * </ul>
+ * Nothing is predicted while paused, on repeat, or without a queue.
+ */
+public class TrackPredictor {
+
+	/** How long before the end of the track the next song is prefetched */
+	public static final long PREFETCH_LEAD_MS = 5000;
+	/**
+	 * Polls still playing the old track this close to its end most likely just saw it a moment before
+	 * it changed, the prediction stays up over them for up to {@link #MAX_LATE_MS}
+	 */
+	public static final long LATE_POLL_MS = 2000;
+	public static final long MAX_LATE_MS = 10000;
+
+	private final PlaybackClock clock;
+	private final Consumer<NextSong> prefetcher;
+	private final Consumer<NowPlaying> publisher;
+
+	/** The polled snapshot the prediction is made from */
+	private NowPlaying basis;
+	private volatile NowPlaying predicted;
+	private long predictedAt;
+	private ScheduledFuture<?> prefetch;
+	private ScheduledFuture<?> boundary;
+
+	/**
+	 * @param clock the clock the polls are fed into, predictions are fed into it too
+	 * @param prefetcher loads what a song needs before it starts
+	 * @param publisher shows a snapshot, polled or predicted. Only called by one thread at a time
+	 */
+	public TrackPredictor(PlaybackClock clock, Consumer<NextSong> prefetcher, Consumer<NowPlaying> publisher) {
+		this.clock = clock;
+		this.prefetcher = prefetcher;
+		this.publisher = publisher;
+	}
+
+	/** Whether what's shown is a prediction no poll has confirmed yet. */
+	public boolean predicting() {
+		return predicted!=null;
+	}
+
+	/**
+	 * Shows a polled snapshot (null if nothing is playing) and plans the prediction of the next one.
+	 * Late polls from just before the track changed aren't shown over the prediction.
+	 * @return whether the poll is shown, false if the prediction stays up
+	 */
+	public synchronized boolean polled(NowPlaying playing) {
+		NowPlaying shown = predicted;
+		if (shown!=null&&late(playing)) {
+			// The poll already went into the clock, the prediction has to go back in
+			clock.update(shown);
+			return false;
+		}
+		// The prediction may have gone into the clock after the poll did
+		if (shown!=null)
+			clock.update(playing);
+		predicted = null;
+		basis = playing;
+		publisher.accept(playing);
+		schedule(playing);
+		return true;
+	}
+
+	private boolean late(NowPlaying playing) {
+		return playing!=null&&playing.isPlaying()&&Objects.equals(playing.trackUrl(), basis.trackUrl())
+				&&playing.durationMs()-playing.progressMs()<=LATE_POLL_MS
+				&&System.currentTimeMillis()-predictedAt<=MAX_LATE_MS;
+	}
+
+	private void schedule(NowPlaying playing) {
+		if (prefetch!=null)
+			prefetch.cancel(false);
+		if (boundary!=null)
+			boundary.cancel(false);
+		prefetch = boundary = null;
+
+		NextSong next = next(playing);
+		if (next==null)
+			return;
+		long remaining = Math.max(0, playing.durationMs()-clock.progressMs());
+		prefetch = SpotifyTransport.EXECUTOR.schedule(()->prefetcher.accept(next),
+				Math.max(0, remaining-PREFETCH_LEAD_MS), TimeUnit.MILLISECONDS);
+		boundary = SpotifyTransport.EXECUTOR.schedule(()->predict(playing, next), remaining, TimeUnit.MILLISECONDS);
+	}
+
+	/** The song that comes after this one, null if we can't tell. */
+	private static NextSong next(NowPlaying playing) {
+		if (playing==null||!playing.isPlaying()||"track".equals(playing.repeat()))
+			return null;
+		SongQueue queue = playing.queue();
+		return queue==null||queue.size()==0 ? null : queue.get(0);
+	}
+
+	private synchronized void predict(NowPlaying from, NextSong next) {
+		// A poll came in since, it knows better
+		if (basis!=from||predicted!=null)
+			return;
+		Instant now = Instant.now();
+		NowPlaying guess = new NowPlaying(true, next.trackName(), next.artists(), next.albumName(), next.trackUrl(),
+				0, next.durationMs(), from.playlistId(), from.playlistName(), from.playlistUrl(),
+				next.albumType(), next.albumArtUrl(), from.shuffle(), from.repeat(), from.queue().afterFirst(),
+				now, now, 0);
+		predicted = guess;
+		predictedAt = now.toEpochMilli();
+		clock.update(guess);
+		publisher.accept(guess);
+	}
+}
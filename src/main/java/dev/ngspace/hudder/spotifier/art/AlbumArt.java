@@ -0,0 +1,10 @@
+package dev.ngspace.hudder.spotifier.art;
+
+/**
+ * Album art that is ready to draw.
+ * @param url the Spotify image url it came from
+ * @param textureId the id of the registered texture, e.g. {@code spotifier:album_art/ab67616d00001e02...}
+ * @param color the dominant colour as 0xRRGGBB
+ * @param accent the most vivid colour that stands out from the dominant one as 0xRRGGBB
+ */
+public record AlbumArt(String url, String textureId, int color, int accent) {}
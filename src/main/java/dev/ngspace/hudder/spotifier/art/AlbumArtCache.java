@@ -0,0 +1,206 @@
+package dev.ngspace.hudder.spotifier.art;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+import javax.imageio.ImageIO;
+
+import dev.ngspace.hudder.spotifier.Spotifier;
+import dev.ngspace.hudder.spotifier.art.ArtImages.Pixels;
+import dev.ngspace.hudder.spotifier.config.SpotifierConfig;
+import dev.ngspace.hudder.spotifier.spotifyapi.SpotifierMetrics;
+import dev.ngspace.hudder.spotifier.spotifyapi.SpotifyAPI;
+import dev.ngspace.hudder.spotifier.spotifyapi.SpotifyTransport;
+
+/**
+ * Loads album art in the background and keeps it ready to draw.
+ * <ul>
+ * <li>Downloads on the {@link SpotifyTransport} threads, then decodes, downscales and picks colours on
+ * {@link SpotifyTransport#IO}, never the render thread</li>
+ * <li>Keeps the last {@link #MEMORY_ENTRIES} images as textures, releasing the ones that fall out.
+ * The art being shown never falls out, however much gets prefetched around it</li>
+ * <li>Keeps the downscaled images on disk by Spotify image id (the ids are content hashes), so
+ * art seen before never has to be downloaded again</li>
+ * <li>Loads the same image only once, however many times it's asked for</li>
+ * </ul>
+ */
+public class AlbumArtCache {private AlbumArtCache() {}
+
+	public static final int MEMORY_ENTRIES = 24;
+	public static final int DISK_ENTRIES = 500;
+
+	/** In access order, trimmed by {@link #evict()} */
+	private static final Map<String, CompletableFuture<AlbumArt>> MEMORY = new LinkedHashMap<>(32, 0.75f, true);
+
+	private static volatile String wanted;
+	private static volatile AlbumArt current;
+
+	/** The art of the playing track, null until it's loaded or if it has none. */
+	public static AlbumArt current() {
+		return current;
+	}
+
+	/** Shows the art at the url as soon as it's loaded, clears it straight away if it isn't yet. */
+	public static void show(String url) {
+		if (Objects.equals(url, wanted)) {
+			touch(url);
+			return;
+		}
+		wanted = url;
+		if (url==null) {
+			current = null;
+			return;
+		}
+		CompletableFuture<AlbumArt> art = load(url);
+		if (!art.isDone())
+			current = null;
+		art.thenAccept(loaded->{
+			if (url.equals(wanted))
+				current = loaded;
+		});
+	}
+
+	/** Starts loading the art so that showing it later is instant. */
+	public static void prefetch(String url) {
+		if (url!=null)
+			load(url);
+	}
+
+	/** The art at the url if it's already loaded, null otherwise. */
+	public static synchronized AlbumArt getIfLoaded(String url) {
+		if (url==null)
+			return null;
+		CompletableFuture<AlbumArt> art = MEMORY.get(url);
+		return art!=null&&art.isDone()&&!art.isCompletedExceptionally() ? art.join() : null;
+	}
+
+	private static synchronized CompletableFuture<AlbumArt> load(String url) {
+		CompletableFuture<AlbumArt> art = MEMORY.get(url);
+		if (art!=null)
+			return art;
+
+		String name = imageId(url);
+		File file = new File(directory(), name + ".png");
+		art = CompletableFuture.supplyAsync(()->cached(file), SpotifyTransport.IO)
+				.thenCompose(cached->cached!=null ? CompletableFuture.completedFuture(cached) : download(url, file))
+				.thenCompose(pixels->{
+					int[] colors = ArtImages.colors(pixels.argb());
+					return ArtTextures.upload(name, pixels).thenApply(id->new AlbumArt(url, id, colors[0], colors[1]));
+				});
+		MEMORY.put(url, art);
+		evict();
+		art.whenComplete((_, error)->{
+			if (error==null)
+				return;
+			Spotifier.LOGGER.debug("Couldn't load album art {}", url, error);
+			// Forget it so it's tried again next time
+			synchronized (AlbumArtCache.class) {
+				MEMORY.remove(url);
+			}
+		});
+		return art;
+	}
+
+	/** Marks the art as just used so it's the last to be evicted. */
+	private static synchronized void touch(String url) {
+		if (url!=null)
+			MEMORY.get(url);
+	}
+
+	/** Releases the least recently used art over {@link #MEMORY_ENTRIES}, never the art that's wanted. */
+	private static void evict() {
+		String keep = wanted;
+		Iterator<Map.Entry<String, CompletableFuture<AlbumArt>>> it = MEMORY.entrySet().iterator();
+		while (MEMORY.size()>MEMORY_ENTRIES&&it.hasNext()) {
+			Map.Entry<String, CompletableFuture<AlbumArt>> eldest = it.next();
+			if (eldest.getKey().equals(keep))
+				continue;
+			it.remove();
+			eldest.getValue().thenAccept(art->ArtTextures.release(art.textureId()));
+		}
+	}
+
+	// --- Loading --------------------------------------------------------------
+
+	/** The downscaled image saved earlier, null if there is none. */
+	private static Pixels cached(File file) {
+		if (!file.isFile())
+			return null;
+		try {
+			BufferedImage cached = ImageIO.read(file);
+			if (cached==null)
+				return null;
+			file.setLastModified(System.currentTimeMillis());
+			return ArtImages.downscale(cached, SpotifyAPI.ART_SIZE);
+		} catch (IOException e) {
+			Spotifier.LOGGER.debug("Ignoring unreadable album art {}", file, e);
+			return null;
+		}
+	}
+
+	private static CompletableFuture<Pixels> download(String url, File file) {
+		return SpotifyTransport.send(SpotifierMetrics.ART, SpotifyTransport.get(url).build()).thenApplyAsync(response->{
+			try {
+				if (response.statusCode()!=200)
+					throw new IOException("HTTP " + response.statusCode() + " for " + url);
+				BufferedImage image = ImageIO.read(new ByteArrayInputStream(response.body()));
+				if (image==null)
+					throw new IOException("Unreadable image at " + url);
+
+				Pixels pixels = ArtImages.downscale(image, SpotifyAPI.ART_SIZE);
+				save(file, pixels);
+				return pixels;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}, SpotifyTransport.IO);
+	}
+
+	private static void save(File file, Pixels pixels) {
+		try {
+			File dir = file.getParentFile();
+			dir.mkdirs();
+			BufferedImage image = new BufferedImage(pixels.width(), pixels.height(), BufferedImage.TYPE_INT_ARGB);
+			image.setRGB(0, 0, pixels.width(), pixels.height(), pixels.argb(), 0, pixels.width());
+			// Written next to it and moved in so a half written file is never read
+			File temp = new File(dir, file.getName() + ".tmp");
+			ImageIO.write(image, "png", temp);
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			prune(dir);
+		} catch (IOException e) {
+			Spotifier.LOGGER.debug("Couldn't cache album art at {}", file, e);
+		}
+	}
+
+	/** Deletes the least recently used images once there are more than {@link #DISK_ENTRIES}. */
+	private static void prune(File dir) {
+		File[] files = dir.listFiles((_, name)->name.endsWith(".png"));
+		if (files==null||files.length<=DISK_ENTRIES)
+			return;
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		for (int i = 0;i<files.length - DISK_ENTRIES;i++)
+			files[i].delete();
+	}
+
+	private static File directory() {
+		return new File(SpotifierConfig.CONFIG_FILE.getParentFile(), "spotifier" + File.separator + "art");
+	}
+
+	/** The last path segment of the url, which is a content hash on Spotify's image CDN. */
+	private static String imageId(String url) {
+		String id = url.substring(url.lastIndexOf('/') + 1).toLowerCase();
+		return id.replaceAll("[^a-z0-9_.-]", "_");
+	}
+}
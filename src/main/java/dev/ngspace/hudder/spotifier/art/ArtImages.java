@@ -0,0 +1,115 @@
+package dev.ngspace.hudder.spotifier.art;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * The pure Java half of the album art pipeline: downscaling and colour picking on plain ARGB pixels.
+ */
+public class ArtImages {private ArtImages() {}
+
+	/** Colours closer than this to the dominant one (squared RGB distance) can't be the accent */
+	private static final int MIN_ACCENT_DISTANCE = 64 * 64;
+
+	/** The pixels of an image scaled down to fit in size x size, averaging the pixels each one covers. */
+	public static Pixels downscale(BufferedImage image, int size) {
+		int w = image.getWidth();
+		int h = image.getHeight();
+		int[] src = image.getRGB(0, 0, w, h, null, 0, w);
+		if (w<=size&&h<=size)
+			return new Pixels(w, h, src);
+
+		double scale = Math.min((double) size / w, (double) size / h);
+		int dw = Math.max(1, (int) Math.round(w * scale));
+		int dh = Math.max(1, (int) Math.round(h * scale));
+		int[] dst = new int[dw * dh];
+		for (int y = 0;y<dh;y++) {
+			int y0 = y * h / dh;
+			int y1 = Math.max(y0 + 1, (y + 1) * h / dh);
+			for (int x = 0;x<dw;x++) {
+				int x0 = x * w / dw;
+				int x1 = Math.max(x0 + 1, (x + 1) * w / dw);
+				long a = 0, r = 0, g = 0, b = 0;
+				for (int sy = y0;sy<y1;sy++) {
+					for (int sx = x0;sx<x1;sx++) {
+						int p = src[sy * w + sx];
+						a += p>>>24;
+						r += (p>>16)&0xff;
+						g += (p>>8)&0xff;
+						b += p&0xff;
+					}
+				}
+				int n = (y1 - y0) * (x1 - x0);
+				dst[y * dw + x] = (int) (a / n)<<24|(int) (r / n)<<16|(int) (g / n)<<8|(int) (b / n);
+			}
+		}
+		return new Pixels(dw, dh, dst);
+	}
+
+	/**
+	 * Picks the dominant colour (the average of the most common colour bucket) and the accent
+	 * (the most vivid bucket, weighed by how common it is, that is far enough from the dominant one).
+	 * @return {dominant, accent} as 0xRRGGBB
+	 */
+	public static int[] colors(int[] argb) {
+		// 4 bits per channel
+		int[] counts = new int[4096];
+		long[] sums = new long[4096 * 3];
+		for (int p : argb) {
+			if ((p>>>24)<128)
+				continue;
+			int r = (p>>16)&0xff, g = (p>>8)&0xff, b = p&0xff;
+			int bucket = (r>>4)<<8|(g>>4)<<4|(b>>4);
+			counts[bucket]++;
+			sums[bucket * 3] += r;
+			sums[bucket * 3 + 1] += g;
+			sums[bucket * 3 + 2] += b;
+		}
+
+		int dominantBucket = -1;
+		for (int i = 0;i<counts.length;i++) {
+			if (counts[i]>0&&(dominantBucket<0||counts[i]>counts[dominantBucket]))
+				dominantBucket = i;
+		}
+		if (dominantBucket<0)
+			return new int[] {0, 0};
+		int dominant = average(counts, sums, dominantBucket);
+
+		int accent = dominant;
+		double bestScore = 0;
+		for (int i = 0;i<counts.length;i++) {
+			if (counts[i]==0)
+				continue;
+			int color = average(counts, sums, i);
+			if (distance(color, dominant)<MIN_ACCENT_DISTANCE)
+				continue;
+			double saturation = saturation(color);
+			double score = counts[i] * saturation * saturation;
+			if (score>bestScore) {
+				bestScore = score;
+				accent = color;
+			}
+		}
+		return new int[] {dominant, accent};
+	}
+
+	private static int average(int[] counts, long[] sums, int bucket) {
+		int n = counts[bucket];
+		return (int) (sums[bucket * 3] / n)<<16|(int) (sums[bucket * 3 + 1] / n)<<8|(int) (sums[bucket * 3 + 2] / n);
+	}
+
+	private static int distance(int a, int b) {
+		int dr = ((a>>16)&0xff) - ((b>>16)&0xff);
+		int dg = ((a>>8)&0xff) - ((b>>8)&0xff);
+		int db = (a&0xff) - (b&0xff);
+		return dr * dr + dg * dg + db * db;
+	}
+
+	private static double saturation(int rgb) {
+		int r = (rgb>>16)&0xff, g = (rgb>>8)&0xff, b = rgb&0xff;
+		int max = Math.max(r, Math.max(g, b));
+		int min = Math.min(r, Math.min(g, b));
+		return max==0 ? 0 : (double) (max - min) / max;
+	}
+
+	public static record Pixels(int width, int height, int[] argb) {}
+}
@@ -0,0 +1,48 @@
+package dev.ngspace.hudder.spotifier.art;
+
+import java.util.concurrent.CompletableFuture;
+
+import com.mojang.blaze3d.platform.NativeImage;
+
+import dev.ngspace.hudder.spotifier.Spotifier;
+import dev.ngspace.hudder.spotifier.art.ArtImages.Pixels;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.renderer.texture.DynamicTexture;
+import net.minecraft.resources.Identifier;
+
+/**
+ * The Minecraft half of the album art pipeline. The image is filled in on the calling thread,
+ * only the upload to the GPU happens on the render thread.
+ */
+public class ArtTextures {private ArtTextures() {}
+
+	/**
+	 * Registers the pixels as a texture named {@code spotifier:album_art/<name>}.
+	 * @return the texture id, once the texture is registered
+	 */
+	public static CompletableFuture<String> upload(String name, Pixels pixels) {
+		NativeImage image = new NativeImage(pixels.width(), pixels.height(), false);
+		int[] argb = pixels.argb();
+		for (int y = 0;y<pixels.height();y++) {
+			for (int x = 0;x<pixels.width();x++)
+				image.setPixel(x, y, argb[y * pixels.width() + x]);
+		}
+
+		Identifier id = Identifier.fromNamespaceAndPath(Spotifier.MOD_ID, "album_art/" + name);
+		CompletableFuture<String> registered = new CompletableFuture<>();
+		Minecraft.getInstance().execute(()->{
+			try {
+				Minecraft.getInstance().getTextureManager().register(id, new DynamicTexture(()->"Spotifier album art " + name, image));
+				registered.complete(id.toString());
+			} catch (Exception e) {
+				image.close();
+				registered.completeExceptionally(e);
+			}
+		});
+		return registered;
+	}
+
+	public static void release(String textureId) {
+		Minecraft.getInstance().execute(()->Minecraft.getInstance().getTextureManager().release(Identifier.parse(textureId)));
+	}
+}
@@ -7,8 +7,8 @@ import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.Map;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import org.json.JSONObject;
@@ -19,6 +19,8 @@ import com.sun.net.httpserver.HttpServer;
 
 import dev.ngspace.hudder.spotifier.SpotifierUtil;
 import dev.ngspace.hudder.spotifier.config.SpotifierConfig;
+import dev.ngspace.hudder.spotifier.jfr.TokenRefreshEvent;
+import dev.ngspace.hudder.spotifier.spotifyapi.SpotifyTransport;
 
 /**
  * Minimal, reusable Spotify Authorization Code + PKCE helper.
@@ -51,7 +53,7 @@ public class SpotifyAuth {
     /** Build the authorization URL you can show/open in a browser. */
     public URI getAuthURI(String[] scopes) {
         String scopeStr = String.join(" ", scopes == null ? new String[0] : scopes);
-        String base = "https://accounts.spotify.com/authorize" +
+        String base = SpotifierConfig.accounts_base + "/authorize" +
                 "?response_type=code" +
                 "&client_id=" + SpotifierUtil.encode(clientId) +
                 "&redirect_uri=" + SpotifierUtil.encode(redirectUri.toString()) +
@@ -63,15 +65,12 @@ public class SpotifyAuth {
     }
 
     /**
-     * Starts a lightweight local HTTP server on listenPort, waits for the redirect,
-     * validates state, returns the "code". Throws on timeout or error.
-     * @throws IOException 
-     * @throws InterruptedException 
+     * Starts a lightweight local HTTP server on listenPort and completes with the "code"
+     * once the redirect comes in and its state checks out. Fails on timeout or error.
+     * The server is stopped either way.
      */
-    public String awaitAuth() throws IOException, InterruptedException {
-        final CountDownLatch latch = new CountDownLatch(1);
-        final StringBuilder resultCode = new StringBuilder();
-        final StringBuilder resultError = new StringBuilder();
+    public CompletableFuture<String> awaitAuth() throws IOException {
+        final CompletableFuture<String> result = new CompletableFuture<>();
         final String expectedState = this.state;
 
         HttpServer server = HttpServer.create(new InetSocketAddress(listenPort), 0);
@@ -85,17 +84,17 @@ public class SpotifyAuth {
                 String gotState = params.get("state");
 
                 String html;
+                IOException failure = null;
                 if (error != null) {
-                    resultError.append(error);
+                    failure = new IOException("Authorization error: " + error);
                     html = "Authentication failed: " + error;
                 } else if (code == null) {
-                    resultError.append("missing_code");
+                    failure = new IOException("Authorization error: missing_code");
                     html = "Authentication failed: missing authorization code.";
                 } else if (expectedState != null && !expectedState.equals(gotState)) {
-                    resultError.append("state_mismatch");
+                    failure = new IOException("Authorization error: state_mismatch");
                     html = "Authentication failed: state mismatch.";
                 } else {
-                    resultCode.append(code);
                     html = "Authentication successful.";
                 }
                 
@@ -106,50 +105,75 @@ public class SpotifyAuth {
                 try (OutputStream os = exchange.getResponseBody()) {
                     os.write(response.getBytes(StandardCharsets.UTF_8));
                 } finally {
-                    latch.countDown();
+                    if (failure != null) result.completeExceptionally(failure);
+                    else result.complete(code);
                 }
             }
         });
-        server.setExecutor(Executors.newSingleThreadExecutor());
+        // The callback is a single tiny request, it doesn't need a thread of its own
+        server.setExecutor(SpotifyTransport.EXECUTOR);
         server.start();
 
-        boolean wasontime = latch.await(callbackWait.toMillis(), TimeUnit.MILLISECONDS);
-        server.stop(0);
-
-        if (!wasontime)
-            throw new IOException("Timed out waiting for authorization redirect on " + redirectUri);
-        if (!resultError.isEmpty())
-            throw new IOException("Authorization error: " + resultError);
-        if (resultCode.isEmpty())
-            throw new IOException("Authorization failed: no code received.");
-        return resultCode.toString();
+        ScheduledFuture<?> timeout = SpotifyTransport.EXECUTOR.schedule(() -> result.completeExceptionally(
+                new IOException("Timed out waiting for authorization redirect on " + redirectUri)),
+                callbackWait.toMillis(), TimeUnit.MILLISECONDS);
+        // Stopping waits for the exchange that completed the future to finish, so not on its thread
+        return result.whenComplete((code, error) -> {
+            timeout.cancel(false);
+            SpotifyTransport.EXECUTOR.execute(() -> server.stop(0));
+        });
     }
 
-    public void fetchTokenFromClientID(String code) throws IOException {
+    public CompletableFuture<Void> fetchTokenFromClientID(String code) {
         String postData = "grant_type=authorization_code" +
                 "&code=" + SpotifierUtil.encode(code) +
                 "&redirect_uri=" + SpotifierUtil.encode(redirectUri.toString()) +
                 "&client_id=" + SpotifierUtil.encode(clientId) +
                 "&code_verifier=" + SpotifierUtil.encode(codeVerifier);
 
-        JSONObject json = SpotifierUtil.postForm("https://accounts.spotify.com/api/token", postData);
-        this.tokens = SpotifyToken.fromJSONObject(json);
-        SpotifierConfig.refresh_token = tokens.refreshToken();
-        SpotifierConfig.save();
+        return postToken("authorization_code", postData).thenAccept(json -> {
+            this.tokens = SpotifyToken.fromJSONObject(json);
+            SpotifierConfig.refresh_token = tokens.refreshToken();
+            SpotifierConfig.save();
+        });
     }
 
-    public void refreshAccessToken(String refreshToken) throws IOException {
+    public CompletableFuture<Void> refreshAccessToken(String refreshToken) {
         String postData = "grant_type=refresh_token" +
                 "&refresh_token=" + SpotifierUtil.encode(refreshToken) +
                 "&client_id=" + SpotifierUtil.encode(clientId);
 
-        JSONObject json = SpotifierUtil.postForm("https://accounts.spotify.com/api/token", postData);
-        this.tokens = SpotifyToken.fromJSONObject(json);
-        SpotifierConfig.refresh_token = tokens.refreshToken();
-        SpotifierConfig.save();
+        return postToken("refresh_token", postData).thenAccept(json -> {
+            SpotifyToken refreshed = SpotifyToken.fromJSONObject(json);
+            // Spotify doesn't always hand out a new refresh token, the old one stays valid then
+            if (refreshed.refreshToken() == null)
+                refreshed = new SpotifyToken(refreshed.accessToken(), refreshToken, refreshed.expiresIn(),
+                        refreshed.tokenType(), refreshed.scope());
+            this.tokens = refreshed;
+            SpotifierConfig.refresh_token = tokens.refreshToken();
+            SpotifierConfig.save();
+        });
     }
     
+    private static CompletableFuture<JSONObject> postToken(String grantType, String postData) {
+        TokenRefreshEvent event = new TokenRefreshEvent();
+        event.begin();
+        return SpotifyTransport.postForm(SpotifierConfig.accounts_base + "/api/token", postData)
+                .whenComplete((json, error) -> {
+                    event.end();
+                    if (event.shouldCommit()) {
+                        event.grantType = grantType;
+                        event.succeeded = error == null;
+                        event.commit();
+                    }
+                });
+    }
+
     public String getAccessToken() {
-    	return tokens.accessToken();
+    	return tokens == null ? null : tokens.accessToken();
+    }
+    
+    public SpotifyToken getTokens() {
+    	return tokens;
     }
 }
\ No newline at end of file
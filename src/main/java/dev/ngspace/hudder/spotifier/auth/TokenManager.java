@@ -0,0 +1,143 @@
+package dev.ngspace.hudder.spotifier.auth;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import dev.ngspace.hudder.spotifier.Spotifier;
+import dev.ngspace.hudder.spotifier.config.SpotifierConfig;
+import dev.ngspace.hudder.spotifier.spotifyapi.SpotifyTransport;
+
+/**
+ * Keeps the access token fresh in the background.
+ * <ul>
+ * <li>Refreshes ahead of the expiry Spotify gives us ({@code expires_in})</li>
+ * <li>Refreshes when Spotify rejects the token (HTTP 401)</li>
+ * <li>Never runs more than one refresh at a time</li>
+ * <li>Keeps serving the current token until the new one is ready</li>
+ * </ul>
+ */
+public class TokenManager {
+
+    /** How long before the token expires to refresh it. */
+    public static final long REFRESH_MARGIN_MS = 5 * 60 * 1000;
+    /** Never schedule refreshes closer together than this, whatever expires_in says. */
+    public static final long MIN_REFRESH_DELAY_MS = 30 * 1000;
+    /** Used when Spotify doesn't tell us when the token expires. */
+    public static final long DEFAULT_EXPIRY_MS = 60 * 60 * 1000;
+    /** Failed refreshes are retried after this, doubling every time up to {@link #MAX_RETRY_DELAY_MS}. */
+    public static final long RETRY_DELAY_MS = 15 * 1000;
+    public static final long MAX_RETRY_DELAY_MS = 10 * 60 * 1000;
+
+    private final AtomicReference<SpotifyAuth> current = new AtomicReference<>();
+    private final AtomicReference<CompletableFuture<SpotifyAuth>> refreshing = new AtomicReference<>();
+    private final Consumer<SpotifyAuth> publisher;
+    private ScheduledFuture<?> scheduled;
+    private volatile long retryDelay = RETRY_DELAY_MS;
+    /** Bumped by {@link #clear()}, refreshes started before that don't get to set their token */
+    private int generation;
+
+    /** @param publisher told about every new auth (or null when it's cleared) */
+    public TokenManager(Consumer<SpotifyAuth> publisher) {
+        this.publisher = publisher;
+    }
+
+    /** The current access token, or null if there is none yet. */
+    public String getAccessToken() {
+        SpotifyAuth auth = current.get();
+        return auth == null ? null : auth.getAccessToken();
+    }
+
+    public boolean hasToken() {
+        return getAccessToken() != null;
+    }
+
+    /** Starts serving the tokens of an auth that just went through the authorization flow. */
+    public synchronized void set(SpotifyAuth auth) {
+        current.set(auth);
+        publisher.accept(auth);
+        retryDelay = RETRY_DELAY_MS;
+        scheduleRefresh(refreshDelay(auth));
+    }
+
+    /** Forgets the current token, used when the user starts authorizing again. */
+    public synchronized void clear() {
+        generation++;
+        // A refresh still running belongs to the old authorization, the next one starts over
+        refreshing.set(null);
+        current.set(null);
+        publisher.accept(null);
+        if (scheduled != null) scheduled.cancel(false);
+    }
+
+    /**
+     * Refreshes the access token in the background.
+     * If a refresh is already running its future is returned instead of starting another one.
+     */
+    public CompletableFuture<SpotifyAuth> refresh() {
+        CompletableFuture<SpotifyAuth> created = new CompletableFuture<>();
+        CompletableFuture<SpotifyAuth> running = refreshing.compareAndExchange(null, created);
+        if (running != null) return running;
+
+        String refreshToken = SpotifierConfig.refresh_token;
+        if (refreshToken == null) {
+            refreshing.compareAndSet(created, null);
+            created.completeExceptionally(new IllegalStateException("No refresh token, authorize Spotifier first"));
+            return created;
+        }
+
+        Spotifier.log("Refreshing Spotify access token");
+        int started = generation();
+        SpotifyAuth auth = new SpotifyAuth(SpotifierConfig.client_id, SpotifierConfig.uri, SpotifierConfig.port);
+        auth.refreshAccessToken(refreshToken).whenComplete((v, error) -> {
+            refreshing.compareAndSet(created, null);
+            if (error == null) {
+                if (set(auth, started)) created.complete(auth);
+                else created.completeExceptionally(new IllegalStateException("The token was cleared while refreshing"));
+            } else if (generation() == started) {
+                Spotifier.LOGGER.warn("Failed to refresh the Spotify access token, retrying in {}s", retryDelay / 1000, error);
+                scheduleRefresh(retryDelay);
+                retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY_MS);
+                created.completeExceptionally(error);
+            } else {
+                created.completeExceptionally(error);
+            }
+        });
+        return created;
+    }
+
+    /**
+     * Called when Spotify rejected a token. Refreshes unless the rejected token was already replaced.
+     * @param rejected the token that was rejected
+     */
+    public void onUnauthorized(String rejected) {
+        String token = getAccessToken();
+        if (token == null || token.equals(rejected)) refresh();
+    }
+
+    /** Sets the auth unless the token was cleared since the given generation. */
+    private synchronized boolean set(SpotifyAuth auth, int started) {
+        if (generation != started) return false;
+        set(auth);
+        return true;
+    }
+
+    private synchronized int generation() {
+        return generation;
+    }
+
+    private synchronized void scheduleRefresh(long delay) {
+        if (scheduled != null) scheduled.cancel(false);
+        scheduled = SpotifyTransport.EXECUTOR.schedule(this::refresh, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static long refreshDelay(SpotifyAuth auth) {
+        return Math.max(MIN_REFRESH_DELAY_MS, expiresIn(auth) - REFRESH_MARGIN_MS);
+    }
+
+    private static long expiresIn(SpotifyAuth auth) {
+        return auth.getTokens().expiresIn() > 0 ? auth.getTokens().expiresIn() * 1000L : DEFAULT_EXPIRY_MS;
+    }
+}
@@ -1,13 +1,24 @@
 package dev.ngspace.hudder.spotifier.config;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.json.JSONException;
 import org.json.JSONObject;
 
+import dev.ngspace.hudder.spotifier.Spotifier;
+import dev.ngspace.hudder.spotifier.spotifyapi.SpotifyTransport;
 import net.fabricmc.loader.api.FabricLoader;
 
 public class SpotifierConfig {private SpotifierConfig() {}
@@ -15,39 +26,185 @@ public class SpotifierConfig {private SpotifierConfig() {}
 	public static String client_id = "";
 	public static String refresh_token = null;
 	public static long pull_rate = 1250;
+	public static final int DEFAULT_QUEUE_DEPTH = 20;
+	/** How many of the songs coming up to keep, Spotify sends up to 20 and most HUDs show a few */
+	public static int queue_depth = DEFAULT_QUEUE_DEPTH;
+	/** How many characters spotifier_progress_bar is wide, and what it's made of */
+	public static int progress_bar_width = 20;
+	public static String progress_bar_filled = "\u2588";
+	public static String progress_bar_empty = "\u2591";
+	/** How many pixels the marquee and fit variables get, and how many characters a second the marquees scroll */
+	public static int marquee_width = 120;
+	public static int marquee_speed = 4;
 	
 	public static URI uri = URI.create("http://127.0.0.1:8888/callback");
 	public static int port = 8888;
 	
-	public static final File CONFIG_FILE = new File(FabricLoader.getInstance().getConfigDir().toString()
-			+ File.separator + "spotifier.json");
+	public static final String DEFAULT_API_BASE = "https://api.spotify.com/v1";
+	public static final String DEFAULT_ACCOUNTS_BASE = "https://accounts.spotify.com";
+	/** Where the Web API lives, only changed to point Spotifier at a fake server */
+	public static String api_base = DEFAULT_API_BASE;
+	/** Where authorization and tokens come from, only changed to point Spotifier at a fake server */
+	public static String accounts_base = DEFAULT_ACCOUNTS_BASE;
 	
+	/** The config file, can be moved with {@code -Dspotifier.config=<path>} (the soak tests do) */
+	public static final File CONFIG_FILE = System.getProperty("spotifier.config")!=null
+			? new File(System.getProperty("spotifier.config"))
+			: new File(FabricLoader.getInstance().getConfigDir().toString() + File.separator + "spotifier.json");
+	
+	/** How long after a change to write the file, changes in between are written together */
+	public static final long SAVE_DELAY_MS = 1000;
+	/** How often to look for edits made to the file by hand */
+	public static final long WATCH_PERIOD_MS = 2000;
+	
+	private static final AtomicBoolean SAVE_PENDING = new AtomicBoolean();
+	/** What was last read or written, so our own writes aren't taken for edits */
+	private static volatile String lastContent;
+	
+	/** Saves the config in the background shortly, whatever changes until then is saved with it. */
 	public static void save() {
+		if (SAVE_PENDING.compareAndSet(false, true))
+			SpotifyTransport.IO.schedule(SpotifierConfig::flush, SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+	}
+	
+	/** Writes the config right now if a save is pending, used when the game closes. */
+	public static void flush() {
+		if (SAVE_PENDING.getAndSet(false))
+			write();
+	}
+	
+	private static synchronized void write() {
 		JSONObject group = new JSONObject();
 		group.put("client_id", client_id);
 		group.put("refresh_token", refresh_token);
 		group.put("msdiff", pull_rate);
+		group.put("queue_depth", queue_depth);
+		group.put("progress_bar_width", progress_bar_width);
+		group.put("progress_bar_filled", progress_bar_filled);
+		group.put("progress_bar_empty", progress_bar_empty);
+		group.put("marquee_width", marquee_width);
+		group.put("marquee_speed", marquee_speed);
+		// Only written when changed so normal configs don't carry them around
+		if (!DEFAULT_API_BASE.equals(api_base))
+			group.put("api_base", api_base);
+		if (!DEFAULT_ACCOUNTS_BASE.equals(accounts_base))
+			group.put("accounts_base", accounts_base);
+		String content = group.toString(1);
 		
-        try (FileWriter file = new FileWriter(CONFIG_FILE)) {
-            file.write(group.toString(1));
-            file.flush();
-        } catch (IOException e) {
-            e.fillInStackTrace();
-        } catch (Exception e) {
-			e.printStackTrace();
+		// Written next to it and moved in so a crash never leaves half a config behind
+		File file = CONFIG_FILE.getAbsoluteFile();
+		File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+		try {
+			file.getParentFile().mkdirs();
+			Files.writeString(temp.toPath(), content);
+			lastContent = content;
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			Spotifier.LOGGER.error("Couldn't save the Spotifier config to {}", file, e);
+			temp.delete();
 		}
 	}
 	
-	public static void read() {
+	/** An absolute http(s) url from the config, the default if it isn't one. */
+	private static String readBase(JSONObject obj, String key, String def) {
+		String value = obj.optString(key, def);
 		try {
-			String json = new String(Files.readAllBytes(CONFIG_FILE.toPath()));
+			URI uri = new URI(value);
+			String scheme = uri.getScheme();
+			if (uri.getHost()!=null&&("https".equalsIgnoreCase(scheme)||"http".equalsIgnoreCase(scheme)))
+				return value;
+		} catch (URISyntaxException e) {
+			// Same as any other bad value
+		}
+		Spotifier.LOGGER.warn("{} in the Spotifier config isn't an http(s) url: {}, using {}", key, value, def);
+		return def;
+	}
+	
+	/**
+	 * Reads the config, keeping the current settings if the file is missing or broken.
+	 * @return whether it was read
+	 */
+	public static synchronized boolean read() {
+		if (!CONFIG_FILE.isFile())
+			return false;
+		try {
+			String json = Files.readString(CONFIG_FILE.toPath());
 			JSONObject obj = new JSONObject(json);
-			client_id = obj.getString("client_id");
-			refresh_token = obj.optString("refresh_token", null);
-			pull_rate = obj.optLong("msdiff", 1250);
+			// Everything is read before anything is set, so a broken file doesn't leave half of it applied
+			String id = obj.getString("client_id");
+			String token = obj.optString("refresh_token", null);
+			long rate = obj.optLong("msdiff", 1250);
+			int depth = Math.max(0, obj.optInt("queue_depth", DEFAULT_QUEUE_DEPTH));
+			int barWidth = Math.max(0, obj.optInt("progress_bar_width", 20));
+			String barFilled = obj.optString("progress_bar_filled", "\u2588");
+			String barEmpty = obj.optString("progress_bar_empty", "\u2591");
+			int marqueeWidth = Math.max(0, obj.optInt("marquee_width", 120));
+			int marqueeSpeed = Math.max(0, obj.optInt("marquee_speed", 4));
+			String api = readBase(obj, "api_base", DEFAULT_API_BASE);
+			String accounts = readBase(obj, "accounts_base", DEFAULT_ACCOUNTS_BASE);
+			client_id = id;
+			refresh_token = token;
+			pull_rate = rate;
+			queue_depth = depth;
+			progress_bar_width = barWidth;
+			progress_bar_filled = barFilled;
+			progress_bar_empty = barEmpty;
+			marquee_width = marqueeWidth;
+			marquee_speed = marqueeSpeed;
+			api_base = api;
+			accounts_base = accounts;
+			lastContent = json;
+			return true;
+		} catch (IOException | JSONException e) {
+			Spotifier.LOGGER.error("Couldn't read the Spotifier config {}, keeping the current settings", CONFIG_FILE, e);
+			return false;
+		}
+	}
+	
+	/**
+	 * Starts looking for edits made to the file from outside (by hand, or by another instance),
+	 * reads them in and runs onReload. Our own writes are skipped.
+	 */
+	public static void watch(Runnable onReload) {
+		File file = CONFIG_FILE.getAbsoluteFile();
+		try {
+			Path dir = file.getParentFile().toPath();
+			WatchService service = dir.getFileSystem().newWatchService();
+			dir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+			// Polled instead of blocking in take(), so it doesn't need a thread of its own
+			SpotifyTransport.IO.scheduleWithFixedDelay(()->{
+				try {
+					if (edited(service, file.getName()))
+						onReload.run();
+				} catch (RuntimeException e) {
+					Spotifier.LOGGER.error("Failed to reload the Spotifier config", e);
+				}
+			}, WATCH_PERIOD_MS, WATCH_PERIOD_MS, TimeUnit.MILLISECONDS);
+		} catch (IOException e) {
+			Spotifier.LOGGER.warn("Can't watch {} for changes", file, e);
+		}
+	}
+	
+	/** Reads the config again if someone else changed it since we last looked. */
+	private static boolean edited(WatchService service, String name) {
+		WatchKey key = service.poll();
+		if (key==null)
+			return false;
+		boolean touched = false;
+		for (WatchEvent<?> event : key.pollEvents())
+			touched |= name.equals(String.valueOf(event.context()));
+		key.reset();
+		if (!touched)
+			return false;
+		
+		try {
+			if (Files.readString(CONFIG_FILE.toPath()).equals(lastContent))
+				return false;
 		} catch (IOException e) {
-			e.printStackTrace();
+			return false;
 		}
+		Spotifier.log("Reloading the edited Spotifier config");
+		return read();
 	}
 	
 }
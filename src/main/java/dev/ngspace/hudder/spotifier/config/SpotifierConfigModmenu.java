@@ -1,5 +1,8 @@
 package dev.ngspace.hudder.spotifier.config;
 
+import java.net.URI;
+import java.util.Objects;
+
 import com.terraformersmc.modmenu.api.ConfigScreenFactory;
 import com.terraformersmc.modmenu.api.ModMenuApi;
 
@@ -21,12 +24,18 @@ public class SpotifierConfigModmenu implements ModMenuApi {
 		
 		NGSMCConfigBuilder builder = new NGSMCConfigBuilder(screen);
 		
+		// Only a different app (or none authorized yet) needs the browser, the rest is just saved
+		String clientId = SpotifierConfig.client_id;
+		URI uri = SpotifierConfig.uri;
+		int port = SpotifierConfig.port;
 		builder.setWriteOperation(()->{
 			try {
-				Spotifier.refreshAllTokens();
+				if (!Objects.equals(clientId, SpotifierConfig.client_id)||!Objects.equals(uri, SpotifierConfig.uri)
+						||port!=SpotifierConfig.port||SpotifierConfig.refresh_token==null)
+					Spotifier.refreshAllTokens();
 				SpotifierConfig.save();
 			} catch (Exception e) {
-				e.printStackTrace();
+				Spotifier.LOGGER.error("Couldn't apply the Spotifier config", e);
 			}
 		});
 		
@@ -45,6 +54,47 @@ public class SpotifierConfigModmenu implements ModMenuApi {
 				.setSaveOperation(s->SpotifierConfig.pull_rate = s)
 				.setValidator(r->r<500?Component.translatable("spotifier.spotify.pull_rate.low"):null)
 				.build());
+		spotify.addOption(IntNGSMCConfigOption.builder(SpotifierConfig.queue_depth,
+				Component.translatable("spotifier.spotify.queue_depth"))
+				.setHoverComponent(Component.translatable("spotifier.spotify.queue_depth.desc"))
+				.setDefaultValue(SpotifierConfig.DEFAULT_QUEUE_DEPTH)
+				.setSaveOperation(d->SpotifierConfig.queue_depth = d)
+				.setValidator(d->d<0?Component.translatable("spotifier.spotify.queue_depth.negative"):null)
+				.build());
+		
+		var hud = builder.createCategory(Component.translatable("spotifier.hud"));
+		
+		hud.addOption(IntNGSMCConfigOption.builder(SpotifierConfig.progress_bar_width,
+				Component.translatable("spotifier.hud.progress_bar_width"))
+				.setHoverComponent(Component.translatable("spotifier.hud.progress_bar_width.desc"))
+				.setDefaultValue(20)
+				.setSaveOperation(w->SpotifierConfig.progress_bar_width = w)
+				.setValidator(w->w<0?Component.translatable("spotifier.hud.progress_bar_width.negative"):null)
+				.build());
+		hud.addOption(StringNGSMCConfigOption.builder(SpotifierConfig.progress_bar_filled,
+				Component.translatable("spotifier.hud.progress_bar_filled"))
+				.setHoverComponent(Component.translatable("spotifier.hud.progress_bar_filled.desc"))
+				.setSaveOperation(s->SpotifierConfig.progress_bar_filled = s)
+				.build());
+		hud.addOption(StringNGSMCConfigOption.builder(SpotifierConfig.progress_bar_empty,
+				Component.translatable("spotifier.hud.progress_bar_empty"))
+				.setHoverComponent(Component.translatable("spotifier.hud.progress_bar_empty.desc"))
+				.setSaveOperation(s->SpotifierConfig.progress_bar_empty = s)
+				.build());
+		hud.addOption(IntNGSMCConfigOption.builder(SpotifierConfig.marquee_width,
+				Component.translatable("spotifier.hud.marquee_width"))
+				.setHoverComponent(Component.translatable("spotifier.hud.marquee_width.desc"))
+				.setDefaultValue(120)
+				.setSaveOperation(w->SpotifierConfig.marquee_width = w)
+				.setValidator(w->w<0?Component.translatable("spotifier.hud.marquee_width.negative"):null)
+				.build());
+		hud.addOption(IntNGSMCConfigOption.builder(SpotifierConfig.marquee_speed,
+				Component.translatable("spotifier.hud.marquee_speed"))
+				.setHoverComponent(Component.translatable("spotifier.hud.marquee_speed.desc"))
+				.setDefaultValue(4)
+				.setSaveOperation(s->SpotifierConfig.marquee_speed = s)
+				.setValidator(s->s<0?Component.translatable("spotifier.hud.marquee_speed.negative"):null)
+				.build());
 		
 		return builder.build();
 	}
@@ -0,0 +1,27 @@
+package dev.ngspace.hudder.spotifier.events;
+
+/** What changed between two snapshots, also the keys of {@code spotifier_changes}. */
+public enum ChangeType {
+	/** Another track started, or playback started or stopped altogether */
+	TRACK("track"),
+	/** Paused or resumed */
+	PLAYBACK("playback"),
+	/** Jumped within the same track */
+	SEEK("seek"),
+	SHUFFLE("shuffle"),
+	REPEAT("repeat"),
+	/** The songs coming up are different */
+	QUEUE("queue"),
+	/** Playing from another playlist, or its name got loaded */
+	PLAYLIST("playlist");
+	
+	private final String key;
+	
+	ChangeType(String key) {
+		this.key = key;
+	}
+	
+	public String key() {
+		return key;
+	}
+}
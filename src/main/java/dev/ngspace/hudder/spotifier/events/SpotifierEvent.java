@@ -0,0 +1,11 @@
+package dev.ngspace.hudder.spotifier.events;
+
+import dev.ngspace.hudder.spotifier.spotifyapi.NowPlaying;
+
+/**
+ * A change between two snapshots.
+ * @param previous the snapshot before, null if nothing was playing
+ * @param current the snapshot now, null if nothing is playing
+ * @param revision the {@link SpotifierEvents#revision()} the change was counted in
+ */
+public record SpotifierEvent(ChangeType type, NowPlaying previous, NowPlaying current, long revision) {}
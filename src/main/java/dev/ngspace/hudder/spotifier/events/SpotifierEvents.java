@@ -0,0 +1,155 @@
+package dev.ngspace.hudder.spotifier.events;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import dev.ngspace.hudder.spotifier.Spotifier;
+import dev.ngspace.hudder.spotifier.spotifyapi.NowPlaying;
+import dev.ngspace.hudder.spotifier.spotifyapi.PlaybackClock;
+import dev.ngspace.hudder.spotifier.spotifyapi.SongQueue;
+import dev.ngspace.hudder.spotifier.spotifyapi.SpotifyTransport;
+import dev.ngspace.hudder.utils.ValueGetter;
+
+/**
+ * Works out what changed between each snapshot and the one before, so nobody has to poll for it.
+ * <ul>
+ * <li>{@link SpotifierListener}s are told about every change as it's seen</li>
+ * <li>Every snapshot that changes anything bumps the {@link #revision()}, and each {@link ChangeType}
+ * remembers the revision it last changed in, so "did the track change since I last drew it?" is
+ * a single comparison. Hudder scripts read the same through {@code spotifier_changes}</li>
+ * </ul>
+ */
+public class SpotifierEvents {private SpotifierEvents() {}
+
+	private static final ChangeType[] TYPES = ChangeType.values();
+	private static final List<SpotifierListener> LISTENERS = new CopyOnWriteArrayList<>();
+
+	/** Swapped whole so {@link #CHANGES} never allocates or locks. */
+	private static volatile Revisions revisions = Revisions.NONE;
+
+	/** What {@code spotifier_changes} returns, the revision every change type last changed in and the current one. */
+	public static final ValueGetter CHANGES = key->{
+		Revisions r = revisions;
+		if ("revision".equals(key))
+			return r.revision;
+		for (ChangeType type : TYPES) {
+			if (type.key().equals(key))
+				return r.changedAt[type.ordinal()];
+		}
+		return null;
+	};
+
+	public static void register(SpotifierListener listener) {
+		LISTENERS.add(Objects.requireNonNull(listener));
+	}
+
+	public static void unregister(SpotifierListener listener) {
+		LISTENERS.remove(listener);
+	}
+
+	/** Counts the snapshots that changed anything, starts at 0. */
+	public static long revision() {
+		return revisions.revision;
+	}
+
+	/** The revision the type last changed in, 0 if it never did. */
+	public static long changedAt(ChangeType type) {
+		return revisions.changedAt[type.ordinal()];
+	}
+
+	/** Whether the type changed after the given revision, e.g. the one something was last drawn at. */
+	public static boolean changedSince(ChangeType type, long revision) {
+		return changedAt(type)>revision;
+	}
+
+	/**
+	 * Compares a newly published snapshot with the one before it and tells the listeners.
+	 * Called by {@link Spotifier} for every snapshot, one at a time.
+	 */
+	public static synchronized void update(NowPlaying previous, NowPlaying current) {
+		EnumSet<ChangeType> changes = diff(previous, current);
+		if (changes.isEmpty())
+			return;
+
+		Revisions old = revisions;
+		long revision = old.revision+1;
+		Long boxed = revision;
+		Long[] changedAt = old.changedAt.clone();
+		for (ChangeType type : changes)
+			changedAt[type.ordinal()] = boxed;
+		revisions = new Revisions(boxed, changedAt);
+
+		if (LISTENERS.isEmpty())
+			return;
+		// Off the HTTP threads, a slow listener shouldn't hold up the next poll
+		SpotifyTransport.IO.execute(()->{
+			for (ChangeType type : changes) {
+				SpotifierEvent event = new SpotifierEvent(type, previous, current, revision);
+				for (SpotifierListener listener : LISTENERS) {
+					try {
+						listener.onChange(event);
+					} catch (RuntimeException e) {
+						Spotifier.LOGGER.error("Spotifier listener {} failed on {}", listener, type, e);
+					}
+				}
+			}
+		});
+	}
+
+	/** Everything that differs between the two snapshots, null meaning nothing is playing. */
+	public static EnumSet<ChangeType> diff(NowPlaying previous, NowPlaying current) {
+		EnumSet<ChangeType> changes = EnumSet.noneOf(ChangeType.class);
+		if (previous==current)
+			return changes;
+
+		if (previous==null||current==null||!Objects.equals(previous.trackUrl(), current.trackUrl()))
+			changes.add(ChangeType.TRACK);
+		else if (seeked(previous, current))
+			changes.add(ChangeType.SEEK);
+
+		if (playing(previous)!=playing(current))
+			changes.add(ChangeType.PLAYBACK);
+		if (previous==null||current==null||previous.shuffle()!=current.shuffle())
+			changes.add(ChangeType.SHUFFLE);
+		if (previous==null||current==null||!Objects.equals(previous.repeat(), current.repeat()))
+			changes.add(ChangeType.REPEAT);
+		if (!sameQueue(previous, current))
+			changes.add(ChangeType.QUEUE);
+		if (previous==null||current==null||!Objects.equals(previous.playlistId(), current.playlistId())
+				||!Objects.equals(previous.playlistName(), current.playlistName()))
+			changes.add(ChangeType.PLAYLIST);
+		return changes;
+	}
+
+	private static boolean playing(NowPlaying playing) {
+		return playing!=null&&playing.isPlaying();
+	}
+
+	/**
+	 * Whether the progress moved more than playing on would explain. Pausing or resuming in between
+	 * could have happened any time between the polls, so anything in that window counts as expected.
+	 */
+	private static boolean seeked(NowPlaying previous, NowPlaying current) {
+		long elapsed = Math.max(0, current.pullTime().toEpochMilli()-previous.pullTime().toEpochMilli());
+		long lowest = previous.progressMs()+(previous.isPlaying()&&current.isPlaying() ? elapsed : 0);
+		long highest = previous.progressMs()+(previous.isPlaying()||current.isPlaying() ? elapsed : 0);
+		return current.progressMs()<lowest-PlaybackClock.SNAP_THRESHOLD_MS
+				||current.progressMs()>highest+PlaybackClock.SNAP_THRESHOLD_MS;
+	}
+
+	private static boolean sameQueue(NowPlaying previous, NowPlaying current) {
+		SongQueue a = previous==null||previous.queue()==null ? SongQueue.EMPTY : previous.queue();
+		SongQueue b = current==null||current.queue()==null ? SongQueue.EMPTY : current.queue();
+		return a.sameSongs(b);
+	}
+
+	private record Revisions(Long revision, Long[] changedAt) {
+		static final Revisions NONE = new Revisions(0L, new Long[TYPES.length]);
+		static {
+			Arrays.fill(NONE.changedAt, 0L);
+		}
+	}
+}
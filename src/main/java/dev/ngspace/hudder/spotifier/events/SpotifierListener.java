@@ -0,0 +1,10 @@
+package dev.ngspace.hudder.spotifier.events;
+
+/**
+ * Told about changes as soon as a poll sees them, in order, on the Spotifier IO thread.
+ * Keep it short (or hand it over to another thread), saving and album art wait for it.
+ */
+@FunctionalInterface
+public interface SpotifierListener {
+	void onChange(SpotifierEvent event);
+}
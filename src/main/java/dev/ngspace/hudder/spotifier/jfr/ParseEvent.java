@@ -0,0 +1,28 @@
+package dev.ngspace.hudder.spotifier.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Turning a response body into what the snapshot needs. */
+@Name("spotifier.Parse")
+@Label("Response Parse")
+@Category("Spotifier")
+@Description("Parsing a Spotify response, or finding it unchanged and skipping it")
+public class ParseEvent extends Event {
+
+	@Label("Response")
+	@Description("player, queue or playlist")
+	public String response;
+
+	@Label("Body Size")
+	@DataAmount
+	public long bytes;
+
+	@Label("Skipped")
+	@Description("The body was the same as the last one, so it wasn't parsed again")
+	public boolean skipped;
+}
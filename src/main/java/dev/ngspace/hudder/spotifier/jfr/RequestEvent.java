@@ -0,0 +1,27 @@
+package dev.ngspace.hudder.spotifier.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** From sending a request to Spotify to having its whole response. */
+@Name("spotifier.Request")
+@Label("Spotify Request")
+@Category("Spotifier")
+@Description("A request to the Spotify Web API or accounts service, from sending it to receiving the whole response")
+public class RequestEvent extends Event {
+
+	@Label("Endpoint")
+	public String endpoint;
+
+	@Label("Status")
+	@Description("HTTP status of the response, -1 if there was none")
+	public int status;
+
+	@Label("Response Size")
+	@DataAmount
+	public long bytes;
+}
@@ -0,0 +1,21 @@
+package dev.ngspace.hudder.spotifier.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Compiling the view of a new snapshot and publishing it to the variables. */
+@Name("spotifier.SnapshotPublish")
+@Label("Snapshot Publish")
+@Category("Spotifier")
+@Description("Compiling the view of a new snapshot and swapping it in for the variables")
+public class SnapshotPublishEvent extends Event {
+
+	@Label("Track")
+	public String track;
+
+	@Label("Queue Length")
+	public int queueLength;
+}
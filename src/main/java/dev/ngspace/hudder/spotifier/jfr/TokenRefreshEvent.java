@@ -0,0 +1,22 @@
+package dev.ngspace.hudder.spotifier.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Getting a new access token, including the blocking POST to the token endpoint. */
+@Name("spotifier.TokenRefresh")
+@Label("Token Refresh")
+@Category("Spotifier")
+@Description("Getting an access token from Spotify's token endpoint")
+public class TokenRefreshEvent extends Event {
+
+	@Label("Grant Type")
+	@Description("refresh_token, or authorization_code right after the user authorized")
+	public String grantType;
+
+	@Label("Succeeded")
+	public boolean succeeded;
+}
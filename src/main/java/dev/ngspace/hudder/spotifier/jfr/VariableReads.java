@@ -0,0 +1,57 @@
+package dev.ngspace.hudder.spotifier.jfr;
+
+import jdk.jfr.EventType;
+
+/**
+ * Groups variable reads into bursts for {@link VariableReadsEvent}. Does nothing but check
+ * whether the event is enabled while no recording wants it.
+ * <pre>
+ * long start = VariableReads.start();
+ * Object value = ...;
+ * VariableReads.end(start);
+ * </pre>
+ */
+public class VariableReads {private VariableReads() {}
+
+	/** Reads further apart than this are in different bursts */
+	public static final long BURST_GAP_NS = 2000000;
+
+	private static final EventType TYPE = EventType.getEventType(VariableReadsEvent.class);
+
+	private static long burstStart;
+	private static long lastRead;
+	private static long readTime;
+	private static int reads;
+
+	/** Returns the start of the read, or 0 if nobody is recording it. */
+	public static long start() {
+		return TYPE.isEnabled() ? System.nanoTime() : 0;
+	}
+
+	public static void end(long start) {
+		// Nothing is recording, don't take the lock on every read
+		if (start==0)
+			return;
+		record(start, System.nanoTime());
+	}
+
+	private static synchronized void record(long start, long now) {
+		if (reads>0&&start - lastRead>BURST_GAP_NS)
+			commit();
+		if (reads==0)
+			burstStart = start;
+		reads++;
+		readTime += now - start;
+		lastRead = now;
+	}
+
+	private static void commit() {
+		VariableReadsEvent event = new VariableReadsEvent();
+		event.reads = reads;
+		event.readTime = readTime;
+		event.span = lastRead - burstStart;
+		event.commit();
+		reads = 0;
+		readTime = 0;
+	}
+}
@@ -0,0 +1,32 @@
+package dev.ngspace.hudder.spotifier.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * The variable reads of one burst, usually one frame of the HUD. Committed by {@link VariableReads}
+ * when the next burst starts.
+ */
+@Name("spotifier.VariableReads")
+@Label("Variable Reads")
+@Category("Spotifier")
+@Description("A burst of Spotifier variable reads, usually the ones of a single HUD frame")
+public class VariableReadsEvent extends Event {
+
+	@Label("Reads")
+	public int reads;
+
+	@Label("Read Time")
+	@Description("Time spent inside the variables")
+	@Timespan(Timespan.NANOSECONDS)
+	public long readTime;
+
+	@Label("Span")
+	@Description("Time from the first read of the burst to the last")
+	@Timespan(Timespan.NANOSECONDS)
+	public long span;
+}
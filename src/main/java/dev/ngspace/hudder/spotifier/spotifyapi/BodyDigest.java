@@ -0,0 +1,100 @@
+package dev.ngspace.hudder.spotifier.spotifyapi;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Cheap fingerprints of response bodies, used to skip parsing responses that didn't change.
+ */
+public class BodyDigest {private BodyDigest() {}
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME  = 0x100000001b3L;
+
+    private static final byte[] PROGRESS_KEY  = "\"progress_ms\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TIMESTAMP_KEY = "\"timestamp\"".getBytes(StandardCharsets.US_ASCII);
+
+    /** FNV-1a hash of the whole body. */
+    public static long hash(byte[] body) {
+        return hash(body, 0, body.length);
+    }
+
+    /** FNV-1a hash of part of the body, from inclusive to exclusive. */
+    public static long hash(byte[] body, int from, int to) {
+        long hash = FNV_OFFSET;
+        for (int i = from; i < to; i++) hash = (hash ^ (body[i] & 0xff)) * FNV_PRIME;
+        return hash;
+    }
+
+    /**
+     * Hashes a player response without the values of {@code progress_ms} and {@code timestamp}, which
+     * change on every poll, and pulls those two values out on the way. Only the keys of the outer object
+     * count, a song called "progress_ms" is hashed like any other string.
+     */
+    public static PlayerDigest digestPlayer(byte[] body) {
+        long hash = FNV_OFFSET;
+        long progress = 0;
+        long timestamp = 0;
+
+        int n = body.length;
+        int i = 0;
+        int depth = 0;
+        boolean inString = false;
+        while (i < n) {
+            byte b = body[i];
+            if (inString) {
+                if (b == '\\' && i + 1 < n) {
+                    // The escaped byte can't end the string
+                    hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+                    b = body[++i];
+                } else if (b == '"') {
+                    inString = false;
+                }
+            } else if (b == '"') {
+                byte[] key = depth != 1 ? null
+                        : regionMatches(body, i, PROGRESS_KEY) ? PROGRESS_KEY
+                        : regionMatches(body, i, TIMESTAMP_KEY) ? TIMESTAMP_KEY : null;
+                int j = key == null ? n : skipWhitespace(body, i + key.length);
+                if (j < n && body[j] == ':') {
+                    for (byte k : key) hash = (hash ^ (k & 0xff)) * FNV_PRIME;
+
+                    j = skipWhitespace(body, j + 1);
+                    long value = 0;
+                    while (j < n && body[j] >= '0' && body[j] <= '9') value = value * 10 + (body[j++] - '0');
+
+                    if (key == PROGRESS_KEY) progress = value;
+                    else timestamp = value;
+                    i = j;
+                    continue;
+                }
+                inString = true;
+            } else if (b == '{' || b == '[') {
+                depth++;
+            } else if (b == '}' || b == ']') {
+                depth--;
+            }
+            hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+            i++;
+        }
+        return new PlayerDigest(hash, progress, timestamp);
+    }
+
+    private static int skipWhitespace(byte[] body, int i) {
+        while (i < body.length && isWhitespace(body[i])) i++;
+        return i;
+    }
+
+    private static boolean regionMatches(byte[] body, int offset, byte[] key) {
+        if (offset + key.length > body.length) return false;
+        for (int k = 0; k < key.length; k++) {
+            if (body[offset + k] != key[k]) return false;
+        }
+        return true;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    /** @param hash the hash of everything but the progress and timestamp */
+    public static record PlayerDigest(long hash, long progressMs, long timestamp) {}
+}
@@ -0,0 +1,293 @@
+package dev.ngspace.hudder.spotifier.spotifyapi;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A forward only JSON reader working directly on the response bytes.
+ * <p>
+ * Field names are matched against pre-encoded keys byte by byte and everything that isn't asked for
+ * is skipped without being decoded, so the only allocations are the strings that are actually read.
+ * <pre>
+ * if (cursor.beginObject()) {
+ *     while (cursor.hasNextField()) {
+ *         switch (cursor.nextField(KEYS)) {
+ *             case 0 -> name = cursor.readString();
+ *             default -> cursor.skipValue();
+ *         }
+ *     }
+ * }
+ * </pre>
+ */
+public class JsonCursor {
+
+    private final byte[] buf;
+    private final int end;
+    private int pos;
+
+    public JsonCursor(byte[] buf) {
+        this(buf, 0, buf.length);
+    }
+
+    public JsonCursor(byte[] buf, int start, int end) {
+        this.buf = buf;
+        this.pos = start;
+        this.end = end;
+    }
+
+    /** Encodes field names for {@link #nextField(byte[][])}. */
+    public static byte[][] keys(String... names) {
+        byte[][] keys = new byte[names.length][];
+        for (int i = 0; i < names.length; i++) keys[i] = names[i].getBytes(StandardCharsets.UTF_8);
+        return keys;
+    }
+
+    public int position() {
+        return pos;
+    }
+
+    // --- Structure ------------------------------------------------------------
+
+    /** Enters an object, returns false (and consumes it) if the value is null. */
+    public boolean beginObject() {
+        return begin('{');
+    }
+
+    /** Enters an array, returns false (and consumes it) if the value is null. */
+    public boolean beginArray() {
+        return begin('[');
+    }
+
+    /** Returns true if the current object has another field, consumes the closing brace otherwise. */
+    public boolean hasNextField() {
+        return hasNext('}');
+    }
+
+    /** Returns true if the current array has another element, consumes the closing bracket otherwise. */
+    public boolean hasNextElement() {
+        return hasNext(']');
+    }
+
+    /**
+     * Reads the next field name and the colon after it.
+     * @return the index of the matching key, or -1 if none of them matched
+     */
+    public int nextField(byte[][] keys) {
+        skipWhitespace();
+        expect('"');
+        int start = pos;
+        boolean escaped = false;
+        while (true) {
+            byte b = byteAt(pos++);
+            if (b == '\\') {
+                escaped = true;
+                pos++;
+            } else if (b == '"') {
+                break;
+            }
+        }
+        int len = pos - 1 - start;
+        skipWhitespace();
+        expect(':');
+
+        // Keys with escapes in them are never one of ours
+        if (escaped) return -1;
+        for (int k = 0; k < keys.length; k++) {
+            if (matches(start, len, keys[k])) return k;
+        }
+        return -1;
+    }
+
+    // --- Values ---------------------------------------------------------------
+
+    /** Returns true and consumes the value if it is null. */
+    public boolean readNull() {
+        skipWhitespace();
+        if (pos < end && buf[pos] == 'n') {
+            literal("null");
+            return true;
+        }
+        return false;
+    }
+
+    public String readString() {
+        if (readNull()) return null;
+        expect('"');
+        int start = pos;
+        while (true) {
+            byte b = byteAt(pos);
+            if (b == '"') {
+                String s = new String(buf, start, pos - start, StandardCharsets.UTF_8);
+                pos++;
+                return s;
+            }
+            if (b == '\\') return readEscapedString(start);
+            pos++;
+        }
+    }
+
+    public long readLong() {
+        if (readNull()) return 0;
+        skipWhitespace();
+        boolean negative = false;
+        if (byteAt(pos) == '-') {
+            negative = true;
+            pos++;
+        }
+        long value = 0;
+        while (pos < end && buf[pos] >= '0' && buf[pos] <= '9') value = value * 10 + (buf[pos++] - '0');
+        // Fractions and exponents aren't expected in the fields we read, drop them
+        while (pos < end && isNumberPart(buf[pos])) pos++;
+        return negative ? -value : value;
+    }
+
+    public boolean readBoolean() {
+        if (readNull()) return false;
+        skipWhitespace();
+        if (byteAt(pos) == 't') {
+            literal("true");
+            return true;
+        }
+        literal("false");
+        return false;
+    }
+
+    /** Skips whatever value comes next, nested objects and arrays included. */
+    public void skipValue() {
+        skipWhitespace();
+        byte b = byteAt(pos);
+        switch (b) {
+            case '"' -> skipString();
+            case '{', '[' -> skipContainer();
+            case 't' -> literal("true");
+            case 'f' -> literal("false");
+            case 'n' -> literal("null");
+            default -> {
+                if (b != '-' && (b < '0' || b > '9')) throw error("Unexpected character '" + (char) b + "'");
+                while (pos < end && isNumberPart(buf[pos])) pos++;
+            }
+        }
+    }
+
+    // --- Internals ------------------------------------------------------------
+
+    private boolean begin(char open) {
+        if (readNull()) return false;
+        expect(open);
+        return true;
+    }
+
+    private boolean hasNext(char close) {
+        skipWhitespace();
+        byte b = byteAt(pos);
+        if (b == close) {
+            pos++;
+            return false;
+        }
+        if (b == ',') {
+            pos++;
+            skipWhitespace();
+        }
+        return true;
+    }
+
+    private void skipString() {
+        pos++;
+        while (true) {
+            byte b = byteAt(pos++);
+            if (b == '\\') pos++;
+            else if (b == '"') return;
+        }
+    }
+
+    private void skipContainer() {
+        int depth = 0;
+        while (true) {
+            byte b = byteAt(pos);
+            if (b == '"') {
+                skipString();
+                continue;
+            }
+            pos++;
+            if (b == '{' || b == '[') depth++;
+            else if ((b == '}' || b == ']') && --depth == 0) return;
+        }
+    }
+
+    private String readEscapedString(int start) {
+        StringBuilder sb = new StringBuilder(pos - start + 16);
+        sb.append(new String(buf, start, pos - start, StandardCharsets.UTF_8));
+        int chunk = pos;
+        while (true) {
+            byte b = byteAt(pos);
+            if (b == '"') {
+                sb.append(new String(buf, chunk, pos - chunk, StandardCharsets.UTF_8));
+                pos++;
+                return sb.toString();
+            }
+            if (b != '\\') {
+                pos++;
+                continue;
+            }
+            sb.append(new String(buf, chunk, pos - chunk, StandardCharsets.UTF_8));
+            byte e = byteAt(pos + 1);
+            pos += 2;
+            switch (e) {
+                case 'n' -> sb.append('\n');
+                case 't' -> sb.append('\t');
+                case 'r' -> sb.append('\r');
+                case 'b' -> sb.append('\b');
+                case 'f' -> sb.append('\f');
+                case 'u' -> {
+                    if (pos + 4 > end) throw error("Truncated unicode escape");
+                    sb.append((char) Integer.parseInt(new String(buf, pos, 4, StandardCharsets.US_ASCII), 16));
+                    pos += 4;
+                }
+                default -> sb.append((char) e);
+            }
+            chunk = pos;
+        }
+    }
+
+    private boolean matches(int start, int len, byte[] key) {
+        if (len != key.length) return false;
+        for (int i = 0; i < len; i++) {
+            if (buf[start + i] != key[i]) return false;
+        }
+        return true;
+    }
+
+    private void literal(String literal) {
+        if (pos + literal.length() > end) throw error("Expected " + literal);
+        for (int i = 0; i < literal.length(); i++) {
+            if (buf[pos + i] != literal.charAt(i)) throw error("Expected " + literal);
+        }
+        pos += literal.length();
+    }
+
+    private void expect(char c) {
+        skipWhitespace();
+        if (byteAt(pos) != c) throw error("Expected '" + c + "'");
+        pos++;
+    }
+
+    private void skipWhitespace() {
+        while (pos < end) {
+            byte b = buf[pos];
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') return;
+            pos++;
+        }
+    }
+
+    private byte byteAt(int index) {
+        if (index >= end) throw error("Unexpected end of JSON");
+        return buf[index];
+    }
+
+    private static boolean isNumberPart(byte b) {
+        return (b >= '0' && b <= '9') || b == '.' || b == 'e' || b == 'E' || b == '+' || b == '-';
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + pos + " of JSON");
+    }
+}
@@ -6,5 +6,6 @@ public record NextSong(
     String albumName,
     String trackUrl,
     long durationMs,
-    String albumType
+    String albumType,
+    String albumArtUrl
 ) {}
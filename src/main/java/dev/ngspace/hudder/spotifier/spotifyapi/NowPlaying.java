@@ -14,8 +14,24 @@ public record NowPlaying(
     String playlistName,
     String playlistUrl,
     String albumType,
+    String albumArtUrl,
     boolean shuffle,
     String repeat,
-    NextSong[] nextSongs,
-    Instant pullTime
-) {}
+    SongQueue queue,
+    Instant pullTime,
+    Instant requestTime,
+    long timestamp
+) {
+    /**
+     * The queue as an array, like before it became a {@link SongQueue}, so {@code spotifier.nextSongs}
+     * keeps working. Decodes every song, {@link #queue()} only decodes the ones that are read.
+     */
+    public NextSong[] nextSongs() {
+        return queue == null ? null : queue.toArray();
+    }
+
+    /** Popularity, release date, ISRC and so on, null until they've been fetched (and for episodes). */
+    public TrackDetails details() {
+        return SpotifyAPI.trackDetails(trackUrl);
+    }
+}
@@ -0,0 +1,267 @@
+package dev.ngspace.hudder.spotifier.spotifyapi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import dev.ngspace.hudder.spotifier.Spotifier;
+import dev.ngspace.hudder.spotifier.config.SpotifierConfig;
+import dev.ngspace.hudder.spotifier.spotifyapi.SpotifyAPI.ResponseMemo;
+import dev.ngspace.hudder.spotifier.spotifyapi.TtlCache.Expiring;
+
+/**
+ * Carries what Spotifier knows over restarts, so the HUD has something to show on the first frame
+ * and startup doesn't begin with a burst of requests. Kept in {@code spotifier-cache.bin} next to
+ * the config:
+ * <ul>
+ * <li>The last snapshot, shown paused until the first poll says otherwise</li>
+ * <li>The ETag of the last queue, so the first queue fetch can be a 304</li>
+ * <li>Playlist names</li>
+ * <li>Track details, until they'd have expired anyway, since they take the most requests to get again</li>
+ * </ul>
+ * No tokens, the refresh token in the config is all a restart needs to get going again.
+ * The file is rewritten whole a while after things change (dropping expired entries on the way)
+ * and once more when the game closes.
+ */
+public class PersistentCache {private PersistentCache() {}
+
+    /** How long after a change to write the file, changes in between are written together. */
+    public static final long SAVE_DELAY_MS = 30000;
+    /** Snapshots older than this aren't worth showing. */
+    public static final long MAX_SNAPSHOT_AGE_MS = 24 * 60 * 60 * 1000;
+
+    private static final int MAGIC = 0x53505443; // SPTC
+    private static final int VERSION = 2;
+
+    private static final AtomicBoolean SAVE_PENDING = new AtomicBoolean();
+
+    public static File file() {
+        return new File(SpotifierConfig.CONFIG_FILE.getParentFile(), "spotifier-cache.bin");
+    }
+
+    // --- Loading --------------------------------------------------------------
+
+    /**
+     * Reads the cache and fills the SpotifyAPI caches from it.
+     * @return the snapshot to start with, null if there is none
+     */
+    public static NowPlaying load() {
+        File file = file();
+        if (!file.isFile()) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            return read(in);
+        } catch (IOException | RuntimeException e) {
+            Spotifier.LOGGER.warn("Ignoring unreadable Spotifier cache {}", file, e);
+            file.delete();
+            return null;
+        }
+    }
+
+    private static NowPlaying read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+        long savedAt = in.readLong();
+
+        NowPlaying playing = in.readBoolean() ? readNowPlaying(in) : null;
+        ResponseMemo<SongQueue> queue = in.readBoolean()
+                ? new ResponseMemo<>(readNullable(in), in.readLong(), in.readInt(), readSongs(in)) : null;
+        Map<String, String> names = new LinkedHashMap<>();
+        for (int i = in.readInt(); i > 0; i--) names.put(in.readUTF(), readNullable(in));
+        Map<String, Expiring<TrackDetails>> details = new LinkedHashMap<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            String id = in.readUTF();
+            TrackDetails value = in.readBoolean() ? readDetails(in) : null;
+            details.put(id, new Expiring<>(value, in.readLong()));
+        }
+
+        if (playing != null && System.currentTimeMillis() - savedAt > MAX_SNAPSHOT_AGE_MS) playing = null;
+        SpotifyAPI.restore(playing, savedAt, queue, names, details);
+        return playing;
+    }
+
+    // --- Saving ---------------------------------------------------------------
+
+    /** Saves the cache in the background, a while from now. */
+    public static void saveSoon() {
+        if (SAVE_PENDING.compareAndSet(false, true))
+            SpotifyTransport.IO.schedule(PersistentCache::save, SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /** Saves the cache right now, on the calling thread. */
+    public static synchronized void save() {
+        SAVE_PENDING.set(false);
+        File file = file();
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            try (OutputStream os = Files.newOutputStream(temp.toPath());
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os))) {
+                write(out);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Spotifier.LOGGER.warn("Couldn't save the Spotifier cache to {}", file, e);
+            temp.delete();
+        }
+    }
+
+    private static void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(System.currentTimeMillis());
+
+        NowPlaying playing = SpotifyAPI.latest().orElse(null);
+        out.writeBoolean(playing != null);
+        if (playing != null) writeNowPlaying(out, playing);
+
+        ResponseMemo<SongQueue> queue = SpotifyAPI.queueMemo();
+        out.writeBoolean(queue != null);
+        if (queue != null) {
+            writeNullable(out, queue.etag());
+            out.writeLong(queue.hash());
+            out.writeInt(queue.length());
+            writeSongs(out, queue.value());
+        }
+
+        Map<String, String> names = SpotifyAPI.playlistNames();
+        out.writeInt(names.size());
+        for (Map.Entry<String, String> name : names.entrySet()) {
+            out.writeUTF(name.getKey());
+            writeNullable(out, name.getValue());
+        }
+
+        Map<String, Expiring<TrackDetails>> details = SpotifyAPI.trackDetails();
+        out.writeInt(details.size());
+        for (Map.Entry<String, Expiring<TrackDetails>> entry : details.entrySet()) {
+            out.writeUTF(entry.getKey());
+            TrackDetails value = entry.getValue().value();
+            out.writeBoolean(value != null);
+            if (value != null) writeDetails(out, value);
+            out.writeLong(entry.getValue().expiresAt());
+        }
+    }
+
+    // --- Records --------------------------------------------------------------
+
+    private static void writeNowPlaying(DataOutputStream out, NowPlaying p) throws IOException {
+        writeNullable(out, p.trackName());
+        writeStrings(out, p.artists());
+        writeNullable(out, p.albumName());
+        writeNullable(out, p.trackUrl());
+        out.writeLong(p.progressMs());
+        out.writeLong(p.durationMs());
+        writeNullable(out, p.playlistId());
+        writeNullable(out, p.playlistName());
+        writeNullable(out, p.playlistUrl());
+        writeNullable(out, p.albumType());
+        writeNullable(out, p.albumArtUrl());
+        out.writeBoolean(p.shuffle());
+        writeNullable(out, p.repeat());
+        writeSongs(out, p.queue());
+        out.writeLong(p.pullTime().toEpochMilli());
+    }
+
+    /** Reads a snapshot back as paused, there's no telling whether it's still playing. */
+    private static NowPlaying readNowPlaying(DataInputStream in) throws IOException {
+        String trackName = readNullable(in);
+        String[] artists = readStrings(in);
+        String albumName = readNullable(in);
+        String trackUrl = readNullable(in);
+        long progress = in.readLong();
+        long duration = in.readLong();
+        String playlistId = readNullable(in);
+        String playlistName = readNullable(in);
+        String playlistUrl = readNullable(in);
+        String albumType = readNullable(in);
+        String albumArtUrl = readNullable(in);
+        boolean shuffle = in.readBoolean();
+        String repeat = readNullable(in);
+        SongQueue next = readSongs(in);
+        Instant pulled = Instant.ofEpochMilli(in.readLong());
+        return new NowPlaying(false, trackName, artists, albumName, trackUrl, progress, duration,
+                playlistId, playlistName, playlistUrl, albumType, albumArtUrl, shuffle, repeat, next,
+                pulled, pulled, 0);
+    }
+
+    /** Decodes whatever nobody read yet, fine since saving is rare and in the background. */
+    private static void writeSongs(DataOutputStream out, SongQueue songs) throws IOException {
+        int n = songs == null ? 0 : songs.size();
+        out.writeInt(n);
+        for (int i = 0; i < n; i++) {
+            NextSong song = songs.get(i);
+            out.writeBoolean(song != null);
+            if (song == null) continue;
+            writeNullable(out, song.trackName());
+            writeStrings(out, song.artists());
+            writeNullable(out, song.albumName());
+            writeNullable(out, song.trackUrl());
+            out.writeLong(song.durationMs());
+            writeNullable(out, song.albumType());
+            writeNullable(out, song.albumArtUrl());
+        }
+    }
+
+    private static SongQueue readSongs(DataInputStream in) throws IOException {
+        NextSong[] songs = new NextSong[in.readInt()];
+        for (int i = 0; i < songs.length; i++) {
+            if (!in.readBoolean()) continue;
+            songs[i] = new NextSong(readNullable(in), readStrings(in), readNullable(in), readNullable(in),
+                    in.readLong(), readNullable(in), readNullable(in));
+        }
+        return SongQueue.of(songs);
+    }
+
+    private static void writeDetails(DataOutputStream out, TrackDetails d) throws IOException {
+        writeNullable(out, d.popularity());
+        out.writeByte(d.explicit() == null ? -1 : d.explicit() ? 1 : 0);
+        writeNullable(out, d.releaseDate());
+        writeNullable(out, d.discNumber());
+        writeNullable(out, d.trackNumber());
+        writeNullable(out, d.isrc());
+    }
+
+    private static TrackDetails readDetails(DataInputStream in) throws IOException {
+        Long popularity = readNullableLong(in);
+        byte explicit = in.readByte();
+        return new TrackDetails(popularity, explicit < 0 ? null : explicit == 1, readNullable(in),
+                readNullableLong(in), readNullableLong(in), readNullable(in));
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] strings) throws IOException {
+        out.writeInt(strings == null ? 0 : strings.length);
+        if (strings != null) for (String s : strings) writeNullable(out, s);
+    }
+
+    private static String[] readStrings(DataInputStream in) throws IOException {
+        String[] strings = new String[in.readInt()];
+        for (int i = 0; i < strings.length; i++) strings[i] = readNullable(in);
+        return strings;
+    }
+
+    private static void writeNullable(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) out.writeUTF(s);
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeNullable(DataOutputStream out, Long l) throws IOException {
+        out.writeBoolean(l != null);
+        if (l != null) out.writeLong(l);
+    }
+
+    private static Long readNullableLong(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readLong() : null;
+    }
+}
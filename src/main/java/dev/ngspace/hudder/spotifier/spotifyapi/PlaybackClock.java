@@ -0,0 +1,91 @@
+package dev.ngspace.hudder.spotifier.spotifyapi;
+
+import java.util.Objects;
+
+/**
+ * Extrapolates the playback position between polls so the progress doesn't jump every time
+ * new data arrives.
+ * <p>
+ * Spotify samples the position somewhere between us sending the request and receiving the
+ * response, so the middle of that window is used as the sample time. The {@code timestamp}
+ * of the response can't help there, it's when the playback state last changed (play, pause,
+ * skip, seek) and not when the position was sampled.
+ * <p>
+ * Small disagreements between the extrapolation and a new poll are slewed away, bigger ones
+ * (seeks, skips) are snapped to immediately.
+ * <p>
+ * Polls and {@code TrackPredictor} predictions update it from different threads, so all of the
+ * state is volatile and every update replaces the anchor as a whole.
+ */
+public class PlaybackClock {
+
+    /** Disagreements above this are treated as a seek and snapped to immediately. */
+    public static final long SNAP_THRESHOLD_MS = 1500;
+    /** Smaller disagreements are corrected gradually over this many milliseconds. */
+    public static final long SLEW_MS = 1000;
+
+    private volatile Anchor anchor;
+    private volatile long rttMs;
+
+    /** Feeds a new poll result into the clock, {@code null} resets it. */
+    public void update(NowPlaying playing) {
+        if (playing == null) {
+            anchor = null;
+            return;
+        }
+
+        long sent = playing.requestTime().toEpochMilli();
+        long received = playing.pullTime().toEpochMilli();
+        long rtt = Math.max(0, received - sent);
+        rttMs = rtt;
+
+        long sample = sent + rtt / 2;
+
+        Anchor old = anchor;
+        long correction = 0;
+        if (old != null && old.playing == playing.isPlaying() && Objects.equals(old.trackUrl, playing.trackUrl())) {
+            long shown = old.progressAt(received);
+            long actual = playing.progressMs() + (playing.isPlaying() ? received - sample : 0);
+            long diff = actual - shown;
+            if (Math.abs(diff) <= SNAP_THRESHOLD_MS)
+                correction = diff;
+        }
+
+        anchor = new Anchor(playing.trackUrl(), playing.isPlaying(), playing.progressMs(), sample,
+                playing.durationMs(), correction, received);
+    }
+
+    /** The estimated playback position right now. */
+    public long progressMs() {
+        return progressAt(System.currentTimeMillis());
+    }
+
+    /** The estimated playback position at the given epoch millisecond. */
+    public long progressAt(long epochMillis) {
+        Anchor a = anchor;
+        return a == null ? 0 : a.progressAt(epochMillis);
+    }
+
+    /** The round trip time of the last poll. */
+    public long rttMs() {
+        return rttMs;
+    }
+
+    private static record Anchor(String trackUrl, boolean playing, long progressMs, long sampleTime,
+            long durationMs, long correction, long slewStart) {
+
+        long progressAt(long now) {
+            long progress = progressMs;
+            if (playing)
+                progress += now - sampleTime;
+            if (correction != 0) {
+                long left = SLEW_MS - (now - slewStart);
+                if (left > 0)
+                    progress -= correction * left / SLEW_MS;
+            }
+            if (progress < 0) return 0;
+            if (durationMs > 0 && progress > durationMs) return durationMs;
+            return progress;
+        }
+    }
+}
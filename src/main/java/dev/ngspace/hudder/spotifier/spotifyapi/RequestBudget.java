@@ -0,0 +1,131 @@
+package dev.ngspace.hudder.spotifier.spotifyapi;
+
+import java.net.http.HttpResponse;
+
+import dev.ngspace.hudder.spotifier.Spotifier;
+
+/**
+ * Decides whether a Web API request may be sent at all, so that a throttled or failing API
+ * isn't made worse by asking again and again. Shared by every Web API endpoint.
+ * <ul>
+ * <li>A token bucket of {@link #CAPACITY} requests refilling at {@link #REFILL_PER_MINUTE} a minute.
+ * Background requests (queue, playlist names) leave {@link #RESERVE} for the player</li>
+ * <li>Nothing at all is sent until the {@code Retry-After} of a 429 has passed</li>
+ * <li>5xx and network failures back off exponentially from {@link #BACKOFF_MS} up to {@link #MAX_BACKOFF_MS}</li>
+ * <li>After {@link #BREAKER_THRESHOLD} failures in a row the breaker opens and nothing is sent for
+ * {@link #BREAKER_OPEN_MS}. After that one request is let through, closing it again if it works</li>
+ * </ul>
+ * Denied requests fail with a {@link RequestDeniedException} and the last good snapshot stays up, marked stale.
+ */
+public class RequestBudget {private RequestBudget() {}
+
+    public static final int CAPACITY = 10;
+    public static final int REFILL_PER_MINUTE = 60;
+    public static final int RESERVE = 2;
+    /** Used when a 429 comes without a (readable) Retry-After. */
+    public static final long DEFAULT_RETRY_AFTER_MS = 5000;
+    public static final long BACKOFF_MS = 1000;
+    public static final long MAX_BACKOFF_MS = 60000;
+    public static final int BREAKER_THRESHOLD = 5;
+    public static final long BREAKER_OPEN_MS = 60000;
+
+    public enum Breaker {CLOSED, OPEN, HALF_OPEN}
+
+    private static double tokens = CAPACITY;
+    private static long refilledAt = System.nanoTime();
+    /** Epoch millisecond before which nothing is sent, from Retry-After or backoff. */
+    private static long blockedUntil;
+    private static int failures;
+    private static Breaker breaker = Breaker.CLOSED;
+    /** Handed out by {@link #acquire}, so {@link #record} knows which request a response is for */
+    private static long permits;
+    /** The permit of the request let through to try a half open breaker, 0 if there is none */
+    private static long trial;
+
+    /**
+     * Takes a request from the budget.
+     * @param essential whether it's the player poll, background requests can't use the last {@link #RESERVE} tokens
+     * @return the permit to pass to {@link #record} with the outcome
+     * @throws RequestDeniedException if there's no room for it
+     */
+    public static synchronized long acquire(boolean essential) {
+        long now = System.currentTimeMillis();
+        if (now < blockedUntil) throw new RequestDeniedException("Backing off from the Spotify API", blockedUntil - now);
+
+        if (breaker == Breaker.OPEN) {
+            // blockedUntil has passed, so the breaker has been open long enough
+            breaker = Breaker.HALF_OPEN;
+            Spotifier.LOGGER.info("Trying the Spotify API again after {} failures", failures);
+        }
+        if (breaker == Breaker.HALF_OPEN) {
+            if (trial != 0 || !essential) throw new RequestDeniedException("Waiting for the Spotify API to recover", BACKOFF_MS);
+            trial = ++permits;
+            return trial;
+        }
+
+        refill();
+        double needed = essential ? 1 : 1 + RESERVE;
+        if (tokens < needed) {
+            long wait = (long) Math.ceil((needed - tokens) * 60000 / REFILL_PER_MINUTE);
+            throw new RequestDeniedException("Out of Spotify API budget", wait);
+        }
+        tokens -= 1;
+        return ++permits;
+    }
+
+    /**
+     * Feeds the outcome of a request that was let through back into the budget.
+     * @param permit what {@link #acquire} returned for it
+     */
+    public static synchronized void record(long permit, HttpResponse<?> resp, Throwable error) {
+        // Requests sent before the breaker opened say nothing about whether the API recovered, only the trial does
+        if (breaker != Breaker.CLOSED && permit != trial) return;
+        trial = 0;
+        long now = System.currentTimeMillis();
+        if (resp != null && resp.statusCode() == 429) {
+            long retryAfter = resp.headers().firstValue("Retry-After").map(RequestBudget::parseRetryAfter).orElse(DEFAULT_RETRY_AFTER_MS);
+            blockedUntil = Math.max(blockedUntil, now + retryAfter);
+            // The budget was too generous, start over from empty
+            tokens = 0;
+            Spotifier.LOGGER.warn("Rate limited by Spotify, pausing requests for {}s", Math.max(1, retryAfter / 1000));
+        } else if (error != null || resp.statusCode() / 100 == 5) {
+            failures++;
+            if (failures >= BREAKER_THRESHOLD) {
+                if (breaker != Breaker.OPEN)
+                    Spotifier.LOGGER.warn("Spotify API failed {} times in a row, pausing requests for {}s", failures, BREAKER_OPEN_MS / 1000);
+                breaker = Breaker.OPEN;
+                blockedUntil = Math.max(blockedUntil, now + BREAKER_OPEN_MS);
+            } else {
+                long backoff = Math.min(MAX_BACKOFF_MS, BACKOFF_MS << Math.min(failures - 1, 16));
+                blockedUntil = Math.max(blockedUntil, now + backoff);
+            }
+        } else {
+            failures = 0;
+            breaker = Breaker.CLOSED;
+        }
+    }
+
+    /** How long until requests are let through again, 0 if they are now. Doesn't count the token bucket. */
+    public static synchronized long retryInMs() {
+        return Math.max(0, blockedUntil - System.currentTimeMillis());
+    }
+
+    public static synchronized Breaker breaker() {
+        return breaker;
+    }
+
+    private static void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(CAPACITY, tokens + (now - refilledAt) / 60e9 * REFILL_PER_MINUTE);
+        refilledAt = now;
+    }
+
+    /** Retry-After is in seconds, HTTP dates aren't used by Spotify. */
+    private static long parseRetryAfter(String value) {
+        try {
+            return Math.max(1, Long.parseLong(value.trim())) * 1000;
+        } catch (NumberFormatException e) {
+            return DEFAULT_RETRY_AFTER_MS;
+        }
+    }
+}
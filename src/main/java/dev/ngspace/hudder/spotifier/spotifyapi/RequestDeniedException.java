@@ -0,0 +1,30 @@
+package dev.ngspace.hudder.spotifier.spotifyapi;
+
+import dev.ngspace.hudder.spotifier.SpotifierException;
+
+/** Thrown instead of sending a request the {@link RequestBudget} has no room for. */
+public class RequestDeniedException extends SpotifierException {
+
+	private final long retryInMs;
+
+	public RequestDeniedException(String reason, long retryInMs) {
+		super(reason + ", retrying in " + retryInMs + "ms");
+		this.retryInMs = retryInMs;
+	}
+
+	/** How long until the budget would allow it. */
+	public long getRetryInMs() {
+		return retryInMs;
+	}
+
+	/** Looks through the causes of a failed future for a denied request, returns 0 if there is none. */
+	public static long retryInOf(Throwable error) {
+		for (Throwable t = error; t != null; t = t.getCause()) {
+			if (t instanceof RequestDeniedException e)
+				return e.retryInMs;
+		}
+		return 0;
+	}
+
+	private static final long serialVersionUID = -4412075310936626318L;
+}
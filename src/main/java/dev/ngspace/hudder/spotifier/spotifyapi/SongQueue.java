@@ -0,0 +1,155 @@
+package dev.ngspace.hudder.spotifier.spotifyapi;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * The songs coming up, decoded only as far as they're read.
+ * <p>
+ * A queue response is only indexed when it arrives: where each of the first {@code depth} entries
+ * starts and ends, and a hash of its bytes. An entry becomes a {@link NextSong} the first time it's
+ * read and stays decoded for as long as the queue is around. Entries with the same bytes as one
+ * in the previous queue take over the song decoded there, so a queue that moved on by one song
+ * decodes at most the one new song at the end.
+ */
+public final class SongQueue {
+
+    public static final SongQueue EMPTY = of(new NextSong[0]);
+
+    private static final byte[][] QUEUE_KEY = JsonCursor.keys("queue");
+
+    /** The response, null if the queue was built from songs that were already decoded. */
+    private final byte[] body;
+    private final int[] starts;
+    private final int[] ends;
+    private final long[] hashes;
+    /** How many entries were asked for, there may be fewer */
+    private final int depth;
+    /** Filled in as entries are read. Two threads may both decode an entry, NextSong is immutable so either is fine */
+    private final NextSong[] songs;
+
+    private SongQueue(byte[] body, int depth, int[] starts, int[] ends, long[] hashes, NextSong[] songs) {
+        this.body = body;
+        this.depth = depth;
+        this.starts = starts;
+        this.ends = ends;
+        this.hashes = hashes;
+        this.songs = songs;
+    }
+
+    /** A queue of songs that are already decoded, e.g. ones read from the cache file. */
+    public static SongQueue of(NextSong[] songs) {
+        return new SongQueue(null, songs.length, null, null, null, songs.clone());
+    }
+
+    /**
+     * Indexes the first entries of a queue response without decoding any of them.
+     * @param depth how many entries to keep, the rest of the queue isn't even looked at
+     * @param previous the queue before, whose decoded songs are reused where the bytes match (can be null)
+     */
+    public static SongQueue index(byte[] body, int depth, SongQueue previous) {
+        int[] starts = new int[depth];
+        int[] ends = new int[depth];
+        int n = 0;
+
+        JsonCursor json = new JsonCursor(body);
+        json.beginObject();
+        while (n == 0 && json.hasNextField()) {
+            if (json.nextField(QUEUE_KEY) != 0) {
+                json.skipValue();
+                continue;
+            }
+            // A null queue is already consumed, nothing left to skip
+            if (!json.beginArray()) break;
+            while (n < depth && json.hasNextElement()) {
+                starts[n] = json.position();
+                json.skipValue();
+                ends[n] = json.position();
+                n++;
+            }
+            // Whatever comes after the entries we want doesn't matter
+            break;
+        }
+
+        long[] hashes = new long[n];
+        NextSong[] songs = new NextSong[n];
+        for (int i = 0; i < n; i++) {
+            hashes[i] = BodyDigest.hash(body, starts[i], ends[i]);
+            if (previous != null) songs[i] = previous.decodedWith(hashes[i], ends[i] - starts[i]);
+        }
+        return new SongQueue(body, depth, trim(starts, n), trim(ends, n), hashes, songs);
+    }
+
+    public int size() {
+        return songs.length;
+    }
+
+    /** The song at the index, decoding it if nobody read it yet. Null for entries Spotify left empty. */
+    public NextSong get(int index) {
+        NextSong song = songs[index];
+        if (song == null && body != null && body[starts[index]] != 'n') {
+            song = SpotifyAPI.parseQueueEntry(new JsonCursor(body, starts[index], ends[index]));
+            songs[index] = song;
+        }
+        return song;
+    }
+
+    /** Every song, decoding the ones nobody read yet. */
+    public NextSong[] toArray() {
+        NextSong[] all = new NextSong[size()];
+        for (int i = 0; i < all.length; i++) all[i] = get(i);
+        return all;
+    }
+
+    /** The same queue cut down (or, if the response is still around, grown back) to another depth. */
+    public SongQueue withDepth(int depth) {
+        if (depth == this.depth) return this;
+        if (body != null) return index(body, depth, this);
+        if (depth >= size()) return this;
+        NextSong[] cut = new NextSong[depth];
+        System.arraycopy(songs, 0, cut, 0, depth);
+        return new SongQueue(null, depth, null, null, null, cut);
+    }
+
+    /** The queue once its first song has started playing, the songs decoded so far come along. */
+    public SongQueue afterFirst() {
+        int n = size();
+        if (n == 0) return this;
+        NextSong[] rest = Arrays.copyOfRange(songs, 1, n);
+        if (body == null) return new SongQueue(null, depth, null, null, null, rest);
+        return new SongQueue(body, depth, Arrays.copyOfRange(starts, 1, n), Arrays.copyOfRange(ends, 1, n),
+                Arrays.copyOfRange(hashes, 1, n), rest);
+    }
+
+    /** Whether both queues have the same songs in the same order, without decoding them if it can be helped. */
+    public boolean sameSongs(SongQueue other) {
+        if (this == other) return true;
+        if (other == null || size() != other.size()) return false;
+        boolean hashed = hashes != null && other.hashes != null;
+        for (int i = 0; i < size(); i++) {
+            if (hashed ? hashes[i] != other.hashes[i] : !Objects.equals(trackUrl(get(i)), trackUrl(other.get(i))))
+                return false;
+        }
+        return true;
+    }
+
+    /** The decoded song with the given bytes, null if there is none. */
+    private NextSong decodedWith(long hash, int length) {
+        if (hashes == null) return null;
+        for (int i = 0; i < hashes.length; i++) {
+            if (hashes[i] == hash && ends[i] - starts[i] == length) return songs[i];
+        }
+        return null;
+    }
+
+    private static String trackUrl(NextSong song) {
+        return song == null ? null : song.trackUrl();
+    }
+
+    private static int[] trim(int[] array, int length) {
+        if (array.length == length) return array;
+        int[] trimmed = new int[length];
+        System.arraycopy(array, 0, trimmed, 0, length);
+        return trimmed;
+    }
+}
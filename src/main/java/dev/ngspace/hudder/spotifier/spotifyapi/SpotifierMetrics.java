@@ -0,0 +1,225 @@
+package dev.ngspace.hudder.spotifier.spotifyapi;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for everything the poller does, cheap enough to update on every request.
+ * Read through the {@code spotifier_stats_*} variables and logged as a summary every {@link #SUMMARY_PERIOD_MS}.
+ */
+public class SpotifierMetrics {private SpotifierMetrics() {}
+
+    public static final String PLAYER = "player";
+    public static final String QUEUE = "queue";
+    public static final String PLAYLIST = "playlist";
+    public static final String TOKEN = "token";
+    public static final String ART = "art";
+    public static final String TRACKS = "tracks";
+
+    public static final long SUMMARY_PERIOD_MS = 15 * 60 * 1000;
+
+    private static final long[] LATENCY_BOUNDS_MS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+    private static final long[] PARSE_BOUNDS_US = {5, 10, 25, 50, 100, 250, 500, 1000, 5000};
+
+    private static final Map<String, Endpoint> ENDPOINTS = new ConcurrentHashMap<>();
+    private static final Histogram PARSE_US = new Histogram(PARSE_BOUNDS_US);
+
+    /** Polls that started a request */
+    public static final LongAdder POLLS = new LongAdder();
+    /** Polls that returned the cached result because another one was still running */
+    public static final LongAdder POLLS_SKIPPED = new LongAdder();
+    /** Polls that failed, whatever the reason */
+    public static final LongAdder POLL_ERRORS = new LongAdder();
+    /** Requests the {@link RequestBudget} didn't let through */
+    public static final LongAdder REQUESTS_DENIED = new LongAdder();
+
+    /** Player responses that only changed their progress, so weren't parsed */
+    public static final HitRate PLAYER_CACHE = new HitRate();
+    /** Queue responses that were answered with 304 or were the same as the last one */
+    public static final HitRate QUEUE_CACHE = new HitRate();
+    /** Playlist names served from the cache */
+    public static final HitRate PLAYLIST_CACHE = new HitRate();
+
+    private static final long STARTED = System.currentTimeMillis();
+    private static final AtomicLong NEXT_SUMMARY = new AtomicLong(STARTED + SUMMARY_PERIOD_MS);
+
+    // --- Recording ------------------------------------------------------------
+
+    public static void recordResponse(String endpoint, int status, long startNanos) {
+        Endpoint e = endpoint(endpoint);
+        e.latency.record((System.nanoTime() - startNanos) / 1000000);
+        e.statuses.computeIfAbsent(status, _ -> new LongAdder()).increment();
+    }
+
+    /** A request that never got a response (connection refused, timed out...) */
+    public static void recordFailure(String endpoint, long startNanos) {
+        Endpoint e = endpoint(endpoint);
+        e.latency.record((System.nanoTime() - startNanos) / 1000000);
+        e.failures.increment();
+    }
+
+    public static void recordParse(long startNanos) {
+        PARSE_US.record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    private static Endpoint endpoint(String name) {
+        return ENDPOINTS.computeIfAbsent(name, _ -> new Endpoint());
+    }
+
+    // --- Reading --------------------------------------------------------------
+
+    public static long requests() {
+        long total = 0;
+        for (Endpoint e : ENDPOINTS.values()) total += e.latency.count();
+        return total;
+    }
+
+    /** Requests that failed outright or got anything but a 2xx or 304. */
+    public static long errors() {
+        long total = 0;
+        for (Endpoint e : ENDPOINTS.values()) {
+            total += e.failures.sum();
+            for (Map.Entry<Integer, LongAdder> status : e.statuses.entrySet()) {
+                if (status.getKey() / 100 != 2 && status.getKey() != 304) total += status.getValue().sum();
+            }
+        }
+        return total;
+    }
+
+    public static long statusCount(int status) {
+        long total = 0;
+        for (Endpoint e : ENDPOINTS.values()) {
+            LongAdder count = e.statuses.get(status);
+            if (count != null) total += count.sum();
+        }
+        return total;
+    }
+
+    public static double requestsPerMinute() {
+        long elapsed = Math.max(1, System.currentTimeMillis() - STARTED);
+        return requests() * 60000.0 / elapsed;
+    }
+
+    /** The latency histogram of an endpoint, empty if it was never called. */
+    public static Histogram latency(String endpoint) {
+        return endpoint(endpoint).latency;
+    }
+
+    public static Histogram parseMicros() {
+        return PARSE_US;
+    }
+
+    // --- Summary --------------------------------------------------------------
+
+    /** Returns the summary if it's time to log it again, null otherwise. */
+    public static String summaryIfDue() {
+        long now = System.currentTimeMillis();
+        long due = NEXT_SUMMARY.get();
+        if (now < due || !NEXT_SUMMARY.compareAndSet(due, now + SUMMARY_PERIOD_MS)) return null;
+        return summary();
+    }
+
+    public static String summary() {
+        StringBuilder sb = new StringBuilder("Spotifier stats: ");
+        sb.append(String.format("%d polls (%d skipped, %d failed), %.1f requests/min, %d errors, %d denied by the budget",
+                POLLS.sum(), POLLS_SKIPPED.sum(), POLL_ERRORS.sum(), requestsPerMinute(), errors(), REQUESTS_DENIED.sum()));
+        for (Map.Entry<String, Endpoint> e : new TreeMap<>(ENDPOINTS).entrySet()) {
+            Endpoint endpoint = e.getValue();
+            sb.append(String.format("%n  %-8s %6d requests, %.0f ms avg, %d ms p95, %d ms max, statuses %s",
+                    e.getKey(), endpoint.latency.count(), endpoint.latency.mean(), endpoint.latency.percentile(0.95),
+                    endpoint.latency.max(), endpoint.statusSummary()));
+        }
+        sb.append(String.format("%n  parse    %.0f us avg, %d us p95, cache hits: player %.0f%%, queue %.0f%%, playlist %.0f%%",
+                PARSE_US.mean(), PARSE_US.percentile(0.95),
+                PLAYER_CACHE.rate() * 100, QUEUE_CACHE.rate() * 100, PLAYLIST_CACHE.rate() * 100));
+        return sb.toString();
+    }
+
+    // --- Types ----------------------------------------------------------------
+
+    private static class Endpoint {
+        final Histogram latency = new Histogram(LATENCY_BOUNDS_MS);
+        final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+        final LongAdder failures = new LongAdder();
+
+        String statusSummary() {
+            StringBuilder sb = new StringBuilder();
+            new TreeMap<>(statuses).forEach((status, count) -> sb.append(status).append('x').append(count.sum()).append(' '));
+            if (failures.sum() > 0) sb.append("failed x").append(failures.sum());
+            return sb.toString().trim();
+        }
+    }
+
+    /** Counts values into fixed buckets, percentiles are rounded up to the upper bound of their bucket. */
+    public static class Histogram {
+        private final long[] bounds;
+        private final LongAdder[] buckets;
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        Histogram(long[] bounds) {
+            this.bounds = bounds;
+            this.buckets = new LongAdder[bounds.length + 1];
+            for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+        }
+
+        public void record(long value) {
+            int i = 0;
+            while (i < bounds.length && value > bounds[i]) i++;
+            buckets[i].increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        public long count() {
+            long total = 0;
+            for (LongAdder bucket : buckets) total += bucket.sum();
+            return total;
+        }
+
+        public double mean() {
+            long n = count();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        public long max() {
+            return max.get();
+        }
+
+        public long percentile(double p) {
+            long n = count();
+            if (n == 0) return 0;
+            long rank = (long) Math.ceil(p * n);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i].sum();
+                if (seen >= rank) return i < bounds.length ? Math.min(bounds[i], max()) : max();
+            }
+            return max();
+        }
+    }
+
+    public static class HitRate {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+
+        public void hit() {
+            hits.increment();
+        }
+
+        public void miss() {
+            misses.increment();
+        }
+
+        /** Share of hits between 0 and 1, 0 before anything was counted. */
+        public double rate() {
+            long h = hits.sum();
+            long total = h + misses.sum();
+            return total == 0 ? 0 : (double) h / total;
+        }
+    }
+}
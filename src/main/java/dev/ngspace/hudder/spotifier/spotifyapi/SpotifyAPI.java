@@ -1,173 +1,402 @@
 package dev.ngspace.hudder.spotifier.spotifyapi;
 
-import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
+import dev.ngspace.hudder.spotifier.Spotifier;
+import dev.ngspace.hudder.spotifier.config.SpotifierConfig;
+import dev.ngspace.hudder.spotifier.jfr.ParseEvent;
+import dev.ngspace.hudder.spotifier.spotifyapi.BodyDigest.PlayerDigest;
 
 public class SpotifyAPI {
     private SpotifyAPI() {}
 
     // --- HTTP + caching state -------------------------------------------------
 
-    private static final HttpClient CLIENT = HttpClient.newBuilder()
-            .connectTimeout(Duration.ofSeconds(10))
-            .build();
-
     private static final AtomicReference<Optional<NowPlaying>> CACHE =
             new AtomicReference<>(Optional.empty());
     private static final AtomicBoolean IN_FLIGHT = new AtomicBoolean(false);
 
-    private static final String URL_CURRENTLY_PLAYING = "https://api.spotify.com/v1/me/player/currently-playing";
-    private static final String URL_PLAYER            = "https://api.spotify.com/v1/me/player";
-    private static final String URL_QUEUE             = "https://api.spotify.com/v1/me/player/queue";
-    private static final String URL_PLAYLIST_BASE     = "https://api.spotify.com/v1/playlists/";
+    /** Playlist names rarely change, no need to ask for them on every poll. */
+    private static final TtlCache<String, String> PLAYLIST_NAMES = new TtlCache<>(64, Duration.ofMinutes(10));
+
+    /** The queue is only fetched when the track changes, or in the background every so often. */
+    private static final long QUEUE_REFRESH_MS = 30000;
+    private static final AtomicReference<QueueSnapshot> QUEUE = new AtomicReference<>();
+    /** The queue fetch that's running, null if none is */
+    private static final AtomicReference<CompletableFuture<SongQueue>> QUEUE_IN_FLIGHT = new AtomicReference<>();
+
+    /** Details barely change, each track's are fetched once and kept for a while. Null for ids Spotify didn't know. */
+    private static final TtlCache<String, TrackDetails> TRACK_DETAILS = new TtlCache<>(512, Duration.ofHours(1));
+    /** Ids that are being fetched right now, so the next poll doesn't ask for them again */
+    private static final Set<String> DETAILS_PENDING = ConcurrentHashMap.newKeySet();
+    /** The track and queue whose details are all cached, nothing to look up until one of them changes */
+    private static volatile Enriched LAST_ENRICHED;
+    /** After a failed /tracks request nothing is fetched until then */
+    private static volatile long detailsRetryAt;
+    private static final long DETAILS_RETRY_MS = 60000;
+    /** The most ids /tracks takes at once */
+    public static final int DETAILS_BATCH = 50;
+
+    // Most polls return the same data apart from the progress, these let us skip parsing them
+    private static volatile ParsedPlayer LAST_PLAYER;
+    private static volatile ResponseMemo<SongQueue> LAST_QUEUE;
+
+    // Relative to SpotifierConfig.api_base
+    private static final String PATH_PLAYER           = "/me/player";
+    private static final String PATH_QUEUE            = "/me/player/queue";
+    private static final String PATH_PLAYLIST_BASE    = "/playlists/";
+    private static final String PATH_TRACKS           = "/tracks?ids=";
     private static final String URL_OPEN_PLAYLIST     = "https://open.spotify.com/playlist/";
     private static final String URL_OPEN_LIKED        = "https://open.spotify.com/collection/tracks";
 
+    // --- Fields read out of the responses, everything else is skipped ---------
+
+    private static final byte[][] PLAYER_KEYS  = JsonCursor.keys("is_playing", "item", "context", "shuffle_state", "repeat_state");
+    private static final byte[][] TRACK_KEYS   = JsonCursor.keys("name", "duration_ms", "album", "artists", "external_urls", "images");
+    private static final byte[][] ALBUM_KEYS   = JsonCursor.keys("name", "album_type", "images");
+    private static final byte[][] IMAGE_KEYS   = JsonCursor.keys("url", "width");
+    private static final byte[][] CONTEXT_KEYS = JsonCursor.keys("type", "uri", "href");
+    private static final byte[][] EXTERNAL_URL_KEYS = JsonCursor.keys("spotify");
+    private static final byte[][] NAME_KEY     = JsonCursor.keys("name");
+    private static final byte[][] TRACKS_KEY   = JsonCursor.keys("tracks");
+    private static final byte[][] DETAILS_KEYS = JsonCursor.keys("popularity", "explicit", "album", "disc_number", "track_number", "external_ids");
+    private static final byte[][] RELEASE_DATE_KEY = JsonCursor.keys("release_date");
+    private static final byte[][] ISRC_KEY     = JsonCursor.keys("isrc");
+
+    private static final String[] NO_ARTISTS = new String[0];
+
+    /** Album art is shown at most this big (in pixels), the smallest image at least this wide is picked. */
+    public static final int ART_SIZE = 128;
+
     // --- Public API -----------------------------------------------------------
 
-    /** Returns cached NowPlaying immediately and asynchronously fetches new data. */
-    public static Optional<NowPlaying> fetchAndReturnPrevious(String accessToken) {
-        Optional<NowPlaying> previous = CACHE.get();
+    /** Returns the result of the last successful poll. */
+    public static Optional<NowPlaying> latest() {
+        return CACHE.get();
+    }
 
-        if (IN_FLIGHT.compareAndSet(false, true)) {
-            requestAsync(accessToken)
-            		.exceptionally(_ -> null)
-                    .thenAccept(CACHE::set)
-                    .whenComplete((_, _) -> IN_FLIGHT.set(false));
+    /**
+     * Fetches new data and caches it once it arrives, completes exceptionally if the poll failed.
+     * Polls that overlap one that is still in flight just return the cached data.
+     */
+    public static CompletableFuture<Optional<NowPlaying>> poll(String accessToken) {
+        if (!IN_FLIGHT.compareAndSet(false, true)) {
+            SpotifierMetrics.POLLS_SKIPPED.increment();
+            return CompletableFuture.completedFuture(CACHE.get());
         }
 
-        return previous;
+        SpotifierMetrics.POLLS.increment();
+        // Anything requestAsync throws has to fail the future, or IN_FLIGHT is never cleared
+        return CompletableFuture.completedFuture(accessToken).thenCompose(SpotifyAPI::requestAsync)
+                .whenComplete((result, error) -> {
+                    if (result != null) CACHE.set(result);
+                    if (error != null) SpotifierMetrics.POLL_ERRORS.increment();
+                    IN_FLIGHT.set(false);
+                });
+    }
+
+    /** What /tracks said about the track, null until it's been fetched and for anything that isn't a track. */
+    public static TrackDetails trackDetails(String trackUrl) {
+        String id = TrackDetails.idOf(trackUrl);
+        return id == null ? null : TRACK_DETAILS.getIfPresent(id);
+    }
+
+    // --- Persistence ----------------------------------------------------------
+    // Used by PersistentCache to carry the caches over restarts
+
+    static Map<String, String> playlistNames() {
+        return PLAYLIST_NAMES.snapshot();
+    }
+
+    static Map<String, TtlCache.Expiring<TrackDetails>> trackDetails() {
+        return TRACK_DETAILS.expiring();
+    }
+
+    static ResponseMemo<SongQueue> queueMemo() {
+        return LAST_QUEUE;
+    }
+
+    /** Fills the caches from a previous run, before any poll happened. */
+    static void restore(NowPlaying playing, long savedAt, ResponseMemo<SongQueue> queue, Map<String, String> playlistNames,
+            Map<String, TtlCache.Expiring<TrackDetails>> details) {
+        playlistNames.forEach(PLAYLIST_NAMES::put);
+        details.forEach((id, d) -> TRACK_DETAILS.put(id, d.value(), d.expiresAt()));
+        if (playing == null) return;
+        CACHE.compareAndSet(Optional.empty(), Optional.of(playing));
+        QUEUE.compareAndSet(null, new QueueSnapshot(playing.trackUrl(), playing.queue(), savedAt));
+        if (LAST_QUEUE == null) LAST_QUEUE = queue;
     }
 
     // --- Orchestration --------------------------------------------------------
 
     private static CompletableFuture<Optional<NowPlaying>> requestAsync(String accessToken) {
 
-        // Fire requests (player/queue = best-effort)
-        CompletableFuture<HttpResponse<String>> fCurrent = sendAsyncString(buildGet(accessToken, URL_CURRENTLY_PLAYING));
-        CompletableFuture<HttpResponse<String>> fPlayer  = sendAsyncStringSafe(buildGet(accessToken, URL_PLAYER));
-        CompletableFuture<HttpResponse<String>> fQueue   = sendAsyncStringSafe(buildGet(accessToken, URL_QUEUE));
+        Instant requestTime = Instant.now();
 
-        // Compose results
-        return fCurrent.thenCompose(respCur -> {
+        // /me/player has everything the snapshot needs, the queue is on its own cadence
+        return sendAsync(SpotifierMetrics.PLAYER, () -> buildGet(accessToken, api(PATH_PLAYER))).thenCompose(respPlayer -> {
         	Instant pullTime = Instant.now();
-            Optional<String> curBody = validateCurrentlyPlaying(respCur);
-            if (curBody.isEmpty()) return CompletableFuture.completedFuture(Optional.empty());
+            Optional<byte[]> playerBody = validatePlayer(respPlayer);
+            if (playerBody.isEmpty()) return CompletableFuture.completedFuture(Optional.empty());
 
-            // Parse the "currently playing" response into structured bits
-            Current parse = parseCurrentlyPlaying(curBody.get());
-            if (parse.itemJson == null) return CompletableFuture.completedFuture(Optional.empty());
+            PlayerDigest digest = BodyDigest.digestPlayer(playerBody.get());
+            ParsedPlayer parse = parsePlayerIfChanged(digest, playerBody.get());
+            if (parse.track == null) return CompletableFuture.completedFuture(Optional.empty());
 
-            TrackFields track = extractTrack(parse.itemJson);
-            ContextFields ctx = extractContext(parse.contextJson);
+            TrackFields track = parse.track;
+            ContextFields ctx = parse.ctx;
 
             // Possibly fetch playlist name if it's a real playlist
             CompletableFuture<String> fPlaylistName =
                     resolvePlaylistName(accessToken, ctx.playlistId, ctx.playlistName);
 
-            // Fetch player state and queue
-            CompletableFuture<PlayerState> fState = fetchPlayerState(fPlayer);
-            CompletableFuture<NextSong[]> fNext = fetchQueue(fQueue);
+            CompletableFuture<SongQueue> fNext = resolveQueue(accessToken, track.trackUrl);
 
-            return CompletableFuture.allOf(fPlaylistName, fState, fNext)
+            return CompletableFuture.allOf(fPlaylistName, fNext)
                     .thenApply(_ -> {
                         String resolvedPlaylistName = fPlaylistName.join();
-                        PlayerState sr = fState.join();
-                        NextSong[] nextSongs = fNext.join();
+                        SongQueue nextSongs = fNext.join();
+                        enrich(accessToken, track.trackUrl, nextSongs);
 
-                        return Optional.of(buildNowPlaying(parse, track, ctx, resolvedPlaylistName, sr, nextSongs, pullTime));
+                        return Optional.of(buildNowPlaying(parse, digest, resolvedPlaylistName, nextSongs, pullTime, requestTime));
                     });
         });
     }
 
     // --- HTTP helpers ---------------------------------------------------------
 
+    private static String api(String path) {
+        return SpotifierConfig.api_base + path;
+    }
+
     private static HttpRequest buildGet(String accessToken, String url) {
-        return HttpRequest.newBuilder()
-                .uri(URI.create(url))
+        return buildGet(accessToken, url, null);
+    }
+
+    private static HttpRequest buildGet(String accessToken, String url, String etag) {
+        HttpRequest.Builder builder = SpotifyTransport.get(url)
                 .header("Authorization", "Bearer " + accessToken)
-                .header("Accept", "application/json")
-                .timeout(Duration.ofSeconds(20))
-                .GET()
-                .build();
+                .header("Accept", "application/json");
+        if (etag != null) builder.header("If-None-Match", etag);
+        return builder.build();
     }
 
-    private static CompletableFuture<HttpResponse<String>> sendAsyncString(HttpRequest req) {
-        return CLIENT.sendAsync(req, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+    /**
+     * Sends the request if the {@link RequestBudget} has room for it, fails with a {@link RequestDeniedException} if not.
+     * The request is built in here so a bad url fails the future instead of throwing past whoever waits on it.
+     */
+    private static CompletableFuture<HttpResponse<byte[]>> sendAsync(String endpoint, Supplier<HttpRequest> request) {
+        HttpRequest req;
+        try {
+            req = request.get();
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        long permit;
+        try {
+            permit = RequestBudget.acquire(SpotifierMetrics.PLAYER.equals(endpoint));
+        } catch (RequestDeniedException e) {
+            SpotifierMetrics.REQUESTS_DENIED.increment();
+            return CompletableFuture.failedFuture(e);
+        }
+        return SpotifyTransport.send(endpoint, req).whenComplete((resp, error) -> RequestBudget.record(permit, resp, error));
     }
 
-    private static CompletableFuture<HttpResponse<String>> sendAsyncStringSafe(HttpRequest req) {
-        return sendAsyncString(req).exceptionally(_ -> null);
+    /** Like {@link #sendAsync}, but completes with null instead of failing. */
+    private static CompletableFuture<HttpResponse<byte[]>> sendAsyncSafe(String endpoint, Supplier<HttpRequest> request) {
+        return sendAsync(endpoint, request).exceptionally(error -> {
+            Spotifier.LOGGER.debug("Spotify {} request failed", endpoint, error);
+            return null;
+        });
     }
 
-    private static Optional<String> validateCurrentlyPlaying(HttpResponse<String> resp) {
+    static Optional<byte[]> validatePlayer(HttpResponse<byte[]> resp) {
         if (resp == null) return Optional.empty();
         int code = resp.statusCode();
         if (code == 204) return Optional.empty();
         if (code != 200) {
-            throw new UnsupportedOperationException("HTTP " + code + " - " + resp.body());
+            throw new SpotifyHttpException(code, new String(resp.body(), StandardCharsets.UTF_8));
         }
         return Optional.ofNullable(resp.body());
     }
 
-    // --- Parsing: currently-playing ------------------------------------------
-
-    private static Current parseCurrentlyPlaying(String body) {
-        JSONObject json = new JSONObject(body);
-        boolean isPlaying = json.optBoolean("is_playing", false);
-        long progress = json.optLong("progress_ms", 0);
-        JSONObject item = json.optJSONObject("item");
-        JSONObject context = json.optJSONObject("context");
-        return new Current(isPlaying, progress, item, context);
+    // --- Parsing: player ------------------------------------------------------
+    // The parsing stages are package private so the JMH benchmarks can reach them
+
+    /** Only parses the response if something other than the progress changed since the last one. */
+    static ParsedPlayer parsePlayerIfChanged(PlayerDigest digest, byte[] body) {
+        ParseEvent event = new ParseEvent();
+        event.begin();
+        ParsedPlayer last = LAST_PLAYER;
+        if (last != null && last.hash == digest.hash()) {
+            SpotifierMetrics.PLAYER_CACHE.hit();
+            commitParse(event, "player", body, true);
+            return last;
+        }
+        SpotifierMetrics.PLAYER_CACHE.miss();
+        long start = System.nanoTime();
+        ParsedPlayer parsed = parsePlayer(digest.hash(), body);
+        SpotifierMetrics.recordParse(start);
+        LAST_PLAYER = parsed;
+        commitParse(event, "player", body, false);
+        return parsed;
     }
 
-    private static TrackFields extractTrack(JSONObject item) {
-        String name = item.optString("name", null);
-        long duration = item.optLong("duration_ms", 0);
-
-        JSONObject albumObj = item.optJSONObject("album");
-        String album = albumObj != null ? albumObj.optString("name", "") : "";
-        String albumType = albumObj != null ? albumObj.optString("album_type", "") : "";
+    static ParsedPlayer parsePlayer(long hash, byte[] body) {
+        boolean isPlaying = false;
+        boolean shuffle = false;
+        String repeat = "off";
+        TrackFields track = null;
+        ContextFields ctx = new ContextFields(null, null, null);
+
+        JsonCursor json = new JsonCursor(body);
+        json.beginObject();
+        while (json.hasNextField()) {
+            switch (json.nextField(PLAYER_KEYS)) {
+                case 0 -> isPlaying = json.readBoolean();
+                case 1 -> track = extractTrack(json);
+                case 2 -> ctx = extractContext(json);
+                case 3 -> shuffle = json.readBoolean();
+                case 4 -> repeat = orDefault(json.readString(), "off");
+                default -> json.skipValue();
+            }
+        }
+        return new ParsedPlayer(hash, isPlaying, new PlayerState(shuffle, repeat), track, ctx);
+    }
 
-        JSONArray artistsArr = item.optJSONArray("artists");
-        String[] artists = parseArtists(artistsArr);
+    /** Reads a track object, returns null if the value is null. */
+    static TrackFields extractTrack(JsonCursor json) {
+        if (!json.beginObject()) return null;
 
+        String name = null;
+        long duration = 0;
+        String album = "";
+        String albumType = "";
+        String[] artists = NO_ARTISTS;
         String trackUrl = null;
-        JSONObject ext = item.optJSONObject("external_urls");
-        if (ext != null) trackUrl = ext.optString("spotify", null);
+        String albumArt = null;
+        String ownArt = null;
+
+        while (json.hasNextField()) {
+            switch (json.nextField(TRACK_KEYS)) {
+                case 0 -> name = json.readString();
+                case 1 -> duration = json.readLong();
+                case 2 -> {
+                    if (json.beginObject()) {
+                        while (json.hasNextField()) {
+                            switch (json.nextField(ALBUM_KEYS)) {
+                                case 0 -> album = orDefault(json.readString(), "");
+                                case 1 -> albumType = orDefault(json.readString(), "");
+                                case 2 -> albumArt = pickImage(json);
+                                default -> json.skipValue();
+                            }
+                        }
+                    }
+                }
+                case 3 -> artists = parseArtists(json);
+                case 4 -> trackUrl = readSpotifyUrl(json);
+                // Episodes have no album, their art is on the item itself
+                case 5 -> ownArt = pickImage(json);
+                default -> json.skipValue();
+            }
+        }
+        return new TrackFields(name, duration, album, albumType, artists, trackUrl, albumArt != null ? albumArt : ownArt);
+    }
 
-        return new TrackFields(name, duration, album, albumType, artists, trackUrl);
+    private static String[] parseArtists(JsonCursor json) {
+        if (!json.beginArray()) return NO_ARTISTS;
+        List<String> out = new ArrayList<>(4);
+        while (json.hasNextElement()) {
+            String artist = "";
+            if (json.beginObject()) {
+                while (json.hasNextField()) {
+                    if (json.nextField(NAME_KEY) == 0) artist = orDefault(json.readString(), "");
+                    else json.skipValue();
+                }
+            }
+            out.add(artist);
+        }
+        return out.toArray(NO_ARTISTS);
     }
 
-    private static String[] parseArtists(JSONArray artistsArr) {
-        if (artistsArr == null) return new String[0];
-        String[] out = new String[artistsArr.length()];
-        for (int i = 0; i < out.length; i++) {
-            out[i] = artistsArr.getJSONObject(i).optString("name", "");
+    /**
+     * Picks the url of the smallest image at least {@link #ART_SIZE} wide out of an images array,
+     * or of the biggest one if they're all smaller.
+     */
+    private static String pickImage(JsonCursor json) {
+        if (!json.beginArray()) return null;
+        String best = null;
+        long bestWidth = 0;
+        while (json.hasNextElement()) {
+            String url = null;
+            long width = 0;
+            if (json.beginObject()) {
+                while (json.hasNextField()) {
+                    switch (json.nextField(IMAGE_KEYS)) {
+                        case 0 -> url = json.readString();
+                        case 1 -> width = json.readLong();
+                        default -> json.skipValue();
+                    }
+                }
+            }
+            if (url == null) continue;
+            boolean better = best == null
+                    || (width >= ART_SIZE ? bestWidth < ART_SIZE || width < bestWidth : width > bestWidth);
+            if (better) {
+                best = url;
+                bestWidth = width;
+            }
         }
-        return out;
+        return best;
     }
 
-    // --- Parsing: context (playlist vs liked songs) ---------------------------
+    /** Reads the "spotify" link out of an external_urls object. */
+    private static String readSpotifyUrl(JsonCursor json) {
+        String url = null;
+        if (json.beginObject()) {
+            while (json.hasNextField()) {
+                if (json.nextField(EXTERNAL_URL_KEYS) == 0) url = json.readString();
+                else json.skipValue();
+            }
+        }
+        return url;
+    }
 
-    private static ContextFields extractContext(JSONObject context) {
-        if (context == null) return new ContextFields(null, null, null);
+    private static String orDefault(String value, String def) {
+        return value == null ? def : value;
+    }
 
-        String ctxType = context.optString("type", "");
-        String ctxUri  = context.optString("uri", "");
-        String ctxHref = context.optString("href", null);
+    // --- Parsing: context (playlist vs liked songs) ---------------------------
+
+    private static ContextFields extractContext(JsonCursor json) {
+        if (!json.beginObject()) return new ContextFields(null, null, null);
+
+        String ctxType = "";
+        String ctxUri  = "";
+        String ctxHref = null;
+        while (json.hasNextField()) {
+            switch (json.nextField(CONTEXT_KEYS)) {
+                case 0 -> ctxType = orDefault(json.readString(), "");
+                case 1 -> ctxUri = orDefault(json.readString(), "");
+                case 2 -> ctxHref = json.readString();
+                default -> json.skipValue();
+            }
+        }
 
         // Playlist
         if ("playlist".equalsIgnoreCase(ctxType)) {
@@ -205,72 +434,275 @@ public class SpotifyAPI {
         if (playlistId == null || "collection:tracks".equals(playlistId)) {
             return CompletableFuture.completedFuture(name);
         }
-        return fetchPlaylistName(accessToken, playlistId).exceptionally(_ -> null);
+        if (PLAYLIST_NAMES.contains(playlistId)) SpotifierMetrics.PLAYLIST_CACHE.hit();
+        else SpotifierMetrics.PLAYLIST_CACHE.miss();
+        return PLAYLIST_NAMES.get(playlistId, id -> fetchPlaylistName(accessToken, id)).exceptionally(error -> {
+            Spotifier.LOGGER.debug("Couldn't get the name of playlist {}", playlistId, error);
+            return null;
+        });
+    }
+
+    // --- Fetch helpers: queue + playlist name ---------------------------------
+
+    /**
+     * Waits for a fresh queue when the track changed since the last one was fetched, since the old
+     * queue is wrong by then, unless the new track is the one the queue said was next. Otherwise
+     * returns the cached queue straight away and refreshes it in the background once it's older
+     * than {@link #QUEUE_REFRESH_MS}.
+     */
+    private static CompletableFuture<SongQueue> resolveQueue(String accessToken, String trackUrl) {
+        QueueSnapshot cached = QUEUE.get();
+        if (cached != null && !Objects.equals(cached.trackUrl, trackUrl) && startsWith(cached.songs, trackUrl)) {
+            // The queue moved on by a song like it said it would, the rest of it is right until the refresh says otherwise
+            SongQueue rest = cached.songs.afterFirst();
+            QueueSnapshot moved = new QueueSnapshot(trackUrl, rest, 0);
+            if (QUEUE.compareAndSet(cached, moved)) refreshQueue(accessToken, trackUrl, moved);
+            return CompletableFuture.completedFuture(rest.withDepth(SpotifierConfig.queue_depth));
+        }
+        if (cached == null || !Objects.equals(cached.trackUrl, trackUrl)) {
+            return refreshQueue(accessToken, trackUrl, cached);
+        }
+        if (System.currentTimeMillis() - cached.fetchedAt > QUEUE_REFRESH_MS) {
+            refreshQueue(accessToken, trackUrl, cached);
+        }
+        return CompletableFuture.completedFuture(cached.songs.withDepth(SpotifierConfig.queue_depth));
     }
 
-    // --- Fetch helpers: player state + queue + playlist name ------------------
+    private static boolean startsWith(SongQueue queue, String trackUrl) {
+        NextSong first = queue.size() == 0 ? null : queue.get(0);
+        return first != null && trackUrl != null && trackUrl.equals(first.trackUrl());
+    }
 
-    private static CompletableFuture<PlayerState> fetchPlayerState(CompletableFuture<HttpResponse<String>> fPlayer) {
-        return fPlayer.thenApply(resp -> {
-            boolean shuffle = false;
-            String repeat = "off";
-            if (resp != null && resp.statusCode() == 200) {
-                JSONObject pj = new JSONObject(resp.body());
-                shuffle = pj.optBoolean("shuffle_state", false);
-                repeat = pj.optString("repeat_state", "off");
+    private static CompletableFuture<SongQueue> refreshQueue(String accessToken, String trackUrl, QueueSnapshot previous) {
+        SongQueue fallback = previous != null && Objects.equals(previous.trackUrl, trackUrl)
+                ? previous.songs : SongQueue.EMPTY;
+        CompletableFuture<SongQueue> created = new CompletableFuture<>();
+        CompletableFuture<SongQueue> running = QUEUE_IN_FLIGHT.compareAndExchange(null, created);
+        if (running != null) {
+            if (fallback != SongQueue.EMPTY) return CompletableFuture.completedFuture(fallback.withDepth(SpotifierConfig.queue_depth));
+            // The track changed while the queue was being fetched. That fetch may already know the new track,
+            // otherwise an older queue is only right if the new track was next in it
+            return running.handle((songs, error) -> {
+                QueueSnapshot latest = QUEUE.get();
+                SongQueue queue = SongQueue.EMPTY;
+                if (latest != null && Objects.equals(latest.trackUrl, trackUrl)) queue = latest.songs;
+                else if (latest != null && startsWith(latest.songs, trackUrl)) queue = latest.songs.afterFirst();
+                return queue.withDepth(SpotifierConfig.queue_depth);
+            });
+        }
+        ResponseMemo<SongQueue> memo = LAST_QUEUE;
+        fetchQueue(sendAsyncSafe(SpotifierMetrics.QUEUE, () -> buildGet(accessToken, api(PATH_QUEUE), memo == null ? null : memo.etag)))
+                .thenApply(songs -> {
+                    // Failed fetches aren't cached so the next poll tries again
+                    if (songs == null) return fallback.withDepth(SpotifierConfig.queue_depth);
+                    QUEUE.set(new QueueSnapshot(trackUrl, songs, System.currentTimeMillis()));
+                    return songs;
+                })
+                .whenComplete((songs, error) -> {
+                    QUEUE_IN_FLIGHT.set(null);
+                    if (error == null) created.complete(songs);
+                    else created.completeExceptionally(error);
+                });
+        return created;
+    }
+
+    private static CompletableFuture<SongQueue> fetchQueue(CompletableFuture<HttpResponse<byte[]>> fQueue) {
+        return fQueue.thenApply(resp -> {
+            if (resp == null) return null;
+            int depth = SpotifierConfig.queue_depth;
+            ResponseMemo<SongQueue> memo = LAST_QUEUE;
+            if (resp.statusCode() == 304 && memo != null) {
+                SpotifierMetrics.QUEUE_CACHE.hit();
+                return memo.value.withDepth(depth);
             }
-            return new PlayerState(shuffle, repeat);
+            if (resp.statusCode() != 200) return null;
+
+            ParseEvent event = new ParseEvent();
+            event.begin();
+            // Same body as last time, same songs
+            byte[] body = resp.body();
+            long hash = BodyDigest.hash(body);
+            if (memo != null && memo.hash == hash && memo.length == body.length) {
+                SpotifierMetrics.QUEUE_CACHE.hit();
+                commitParse(event, "queue", body, true);
+                return memo.value.withDepth(depth);
+            }
+
+            SpotifierMetrics.QUEUE_CACHE.miss();
+            long start = System.nanoTime();
+            SongQueue songs = SongQueue.index(body, depth, memo == null ? null : memo.value);
+            SpotifierMetrics.recordParse(start);
+            commitParse(event, "queue", body, false);
+            LAST_QUEUE = new ResponseMemo<>(resp.headers().firstValue("ETag").orElse(null), hash, body.length, songs);
+            return songs;
         });
     }
 
-    private static CompletableFuture<NextSong[]> fetchQueue(CompletableFuture<HttpResponse<String>> fQueue) {
-        return fQueue.thenApply(resp -> {
-            if (resp == null || resp.statusCode() != 200) return new NextSong[0];
+    /** Decodes one entry of a queue response, {@link SongQueue} calls it as entries are read. */
+    static NextSong parseQueueEntry(JsonCursor json) {
+        TrackFields t = extractTrack(json);
+        return t == null ? null : new NextSong(t.name, t.artists, t.album, t.trackUrl, t.durationMs, t.albumType, t.artUrl);
+    }
+
+    // --- Enrichment: track details -------------------------------------------
+
+    /**
+     * Fetches the {@link TrackDetails} of the track and the queue that aren't cached yet, in the
+     * background and in batches of up to {@link #DETAILS_BATCH}. They're read from the cache
+     * (see {@link #trackDetails(String)}) as soon as they arrive, so nothing waits for them.
+     */
+    private static void enrich(String accessToken, String trackUrl, SongQueue queue) {
+        Enriched last = LAST_ENRICHED;
+        if (last != null && last.queue == queue && Objects.equals(last.trackUrl, trackUrl)) return;
+        if (System.currentTimeMillis() < detailsRetryAt) return;
+
+        List<String> missing = new ArrayList<>();
+        boolean cached = addIfMissing(missing, trackUrl);
+        for (int i = 0; i < queue.size(); i++) {
+            NextSong song = queue.get(i);
+            if (song != null) cached &= addIfMissing(missing, song.trackUrl());
+        }
+        if (cached) LAST_ENRICHED = new Enriched(trackUrl, queue);
 
-            JSONObject q = new JSONObject(resp.body());
-            JSONArray queueArr = q.optJSONArray("queue");
-            if (queueArr == null) return new NextSong[0];
+        for (int from = 0; from < missing.size(); from += DETAILS_BATCH) {
+            fetchDetails(accessToken, List.copyOf(missing.subList(from, Math.min(missing.size(), from + DETAILS_BATCH))));
+        }
+    }
 
-            NextSong[] out = new NextSong[queueArr.length()];
-            for (int i = 0; i < queueArr.length(); i++) {
-                JSONObject t = queueArr.optJSONObject(i);
-                if (t == null) continue;
+    /** Fetches the details of a song ahead of time if they aren't cached, e.g. of the one that's about to start. */
+    public static void prefetchDetails(String accessToken, NextSong song) {
+        if (song == null || System.currentTimeMillis() < detailsRetryAt) return;
+        List<String> missing = new ArrayList<>(1);
+        addIfMissing(missing, song.trackUrl());
+        if (!missing.isEmpty()) fetchDetails(accessToken, missing);
+    }
 
-                String tName = t.optString("name", null);
-                long tDuration = t.optLong("duration_ms", 0);
+    /** Adds the id of the track if its details have to be fetched, returns whether they're cached already. */
+    private static boolean addIfMissing(List<String> missing, String trackUrl) {
+        String id = TrackDetails.idOf(trackUrl);
+        if (id == null || TRACK_DETAILS.contains(id)) return true;
+        if (!missing.contains(id) && DETAILS_PENDING.add(id)) missing.add(id);
+        return false;
+    }
 
-                JSONObject tAlbumObj = t.optJSONObject("album");
-                String tAlbum = tAlbumObj != null ? tAlbumObj.optString("name", "") : "";
-                String tAlbumType = tAlbumObj != null ? tAlbumObj.optString("album_type", "") : "";
+    private static void fetchDetails(String accessToken, List<String> ids) {
+        sendAsync(SpotifierMetrics.TRACKS, () -> buildGet(accessToken, api(PATH_TRACKS + String.join(",", ids))))
+                .thenAccept(resp -> {
+                    if (resp.statusCode() != 200) {
+                        throw new SpotifyHttpException(resp.statusCode(), new String(resp.body(), StandardCharsets.UTF_8));
+                    }
+                    ParseEvent event = new ParseEvent();
+                    event.begin();
+                    List<TrackDetails> details = parseTrackDetails(resp.body());
+                    commitParse(event, "tracks", resp.body(), false);
+                    // Tracks come back in the order they were asked for, relinked ones under another id
+                    for (int i = 0; i < ids.size(); i++) {
+                        TRACK_DETAILS.put(ids.get(i), i < details.size() ? details.get(i) : null);
+                    }
+                })
+                .whenComplete((_, error) -> {
+                    DETAILS_PENDING.removeAll(ids);
+                    if (error != null) {
+                        detailsRetryAt = System.currentTimeMillis() + DETAILS_RETRY_MS;
+                        Spotifier.LOGGER.debug("Couldn't get the details of {} tracks", ids.size(), error);
+                    }
+                });
+    }
 
-                String[] tArtists = parseArtists(t.optJSONArray("artists"));
+    /** Reads a /tracks response, with null for the ids Spotify didn't know. */
+    static List<TrackDetails> parseTrackDetails(byte[] body) {
+        List<TrackDetails> out = new ArrayList<>();
+        JsonCursor json = new JsonCursor(body);
+        json.beginObject();
+        while (json.hasNextField()) {
+            if (json.nextField(TRACKS_KEY) != 0) {
+                json.skipValue();
+                continue;
+            }
+            if (!json.beginArray()) continue;
+            while (json.hasNextElement()) out.add(extractDetails(json));
+        }
+        return out;
+    }
 
-                String tUrl = null;
-                JSONObject tExt = t.optJSONObject("external_urls");
-                if (tExt != null) tUrl = tExt.optString("spotify", null);
+    private static TrackDetails extractDetails(JsonCursor json) {
+        if (!json.beginObject()) return null;
+
+        Long popularity = null;
+        Boolean explicit = null;
+        String releaseDate = null;
+        Long discNumber = null;
+        Long trackNumber = null;
+        String isrc = null;
+        while (json.hasNextField()) {
+            switch (json.nextField(DETAILS_KEYS)) {
+                case 0 -> popularity = json.readNull() ? null : json.readLong();
+                case 1 -> explicit = json.readNull() ? null : json.readBoolean();
+                case 2 -> releaseDate = readField(json, RELEASE_DATE_KEY);
+                case 3 -> discNumber = json.readNull() ? null : json.readLong();
+                case 4 -> trackNumber = json.readNull() ? null : json.readLong();
+                case 5 -> isrc = readField(json, ISRC_KEY);
+                default -> json.skipValue();
+            }
+        }
+        return new TrackDetails(popularity, explicit, releaseDate, discNumber, trackNumber, isrc);
+    }
 
-                out[i] = new NextSong(tName, tArtists, tAlbum, tUrl, tDuration, tAlbumType);
+    /** Reads one string field out of an object, skipping the rest of it. */
+    private static String readField(JsonCursor json, byte[][] key) {
+        String value = null;
+        if (json.beginObject()) {
+            while (json.hasNextField()) {
+                if (json.nextField(key) == 0) value = json.readString();
+                else json.skipValue();
             }
-            return out;
-        });
+        }
+        return value;
     }
 
     private static CompletableFuture<String> fetchPlaylistName(String accessToken, String playlistId) {
-        HttpRequest req = buildGet(accessToken, URL_PLAYLIST_BASE + playlistId);
-        return CLIENT.sendAsync(req, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8))
+        return sendAsync(SpotifierMetrics.PLAYLIST, () -> buildGet(accessToken, api(PATH_PLAYLIST_BASE + playlistId + "?fields=name")))
                 .thenApply(resp -> {
+                    // Playlists we can't see (private, or made by Spotify) won't become visible, cache them as unknown
+                    if (resp.statusCode() == 403 || resp.statusCode() == 404) return null;
                     if (resp.statusCode() != 200) {
                         throw new IllegalArgumentException("Playlist fetch failed: HTTP " + resp.statusCode());
                     }
-                    JSONObject json = new JSONObject(resp.body());
-                    return json.optString("name", null);
+                    ParseEvent event = new ParseEvent();
+                    event.begin();
+                    String name = parsePlaylistName(resp.body());
+                    commitParse(event, "playlist", resp.body(), false);
+                    return name;
                 });
     }
 
-    private static NowPlaying buildNowPlaying(Current cur, TrackFields track, ContextFields ctx,
-    		String resolvedPlaylistName, PlayerState state, NextSong[] nextSongs, Instant pulltime) {
-        boolean shuffle = state.shuffle();
-        String repeat  = state.repeat();
+    static String parsePlaylistName(byte[] body) {
+        String name = null;
+        JsonCursor json = new JsonCursor(body);
+        json.beginObject();
+        while (json.hasNextField()) {
+            if (json.nextField(NAME_KEY) == 0) name = json.readString();
+            else json.skipValue();
+        }
+        return name;
+    }
+
+    private static void commitParse(ParseEvent event, String response, byte[] body, boolean skipped) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.response = response;
+            event.bytes = body.length;
+            event.skipped = skipped;
+            event.commit();
+        }
+    }
+
+    static NowPlaying buildNowPlaying(ParsedPlayer cur, PlayerDigest digest,
+    		String resolvedPlaylistName, SongQueue nextSongs, Instant pulltime, Instant requestTime) {
+        TrackFields track = cur.track;
+        ContextFields ctx = cur.ctx;
+        boolean shuffle = cur.state.shuffle();
+        String repeat  = cur.state.repeat();
         
         String playlistID = null;
         String playlistName = null;
@@ -290,18 +722,21 @@ public class SpotifyAPI {
 
         return new NowPlaying(
                 cur.isPlaying, track.name, track.artists, track.album, track.trackUrl,
-                cur.progressMs, track.durationMs,
+                digest.progressMs(), track.durationMs,
                 playlistID, playlistName, playlistURL,
-                track.albumType,
+                track.albumType, track.artUrl,
                 shuffle, repeat, nextSongs,
-                pulltime
+                pulltime, requestTime, digest.timestamp()
         );
     }
 
     // --- Tiny carrier types to keep methods clean -----------------------------
     
     public static record PlayerState(boolean shuffle, String repeat) {}
-    public static record Current(boolean isPlaying, long progressMs, JSONObject itemJson, JSONObject contextJson) {}
-    public static record TrackFields(String name, long durationMs, String album, String albumType, String[] artists, String trackUrl) {}
+    public static record ParsedPlayer(long hash, boolean isPlaying, PlayerState state, TrackFields track, ContextFields ctx) {}
+    public static record TrackFields(String name, long durationMs, String album, String albumType, String[] artists, String trackUrl, String artUrl) {}
     public static record ContextFields(String playlistId, String playlistUrl, String playlistName) {}
+    public static record QueueSnapshot(String trackUrl, SongQueue songs, long fetchedAt) {}
+    public static record ResponseMemo<T>(String etag, long hash, int length, T value) {}
+    private static record Enriched(String trackUrl, SongQueue queue) {}
 }
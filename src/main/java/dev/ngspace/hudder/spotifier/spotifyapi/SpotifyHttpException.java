@@ -0,0 +1,29 @@
+package dev.ngspace.hudder.spotifier.spotifyapi;
+
+import dev.ngspace.hudder.spotifier.SpotifierException;
+
+/** Thrown when the Spotify Web API answers with a status we can't use. */
+public class SpotifyHttpException extends SpotifierException {
+
+	private final int statusCode;
+
+	public SpotifyHttpException(int statusCode, String body) {
+		super("HTTP " + statusCode + " - " + body);
+		this.statusCode = statusCode;
+	}
+
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	/** Looks through the causes of a failed future for a status code, returns -1 if there is none. */
+	public static int statusOf(Throwable error) {
+		for (Throwable t = error; t != null; t = t.getCause()) {
+			if (t instanceof SpotifyHttpException e)
+				return e.statusCode;
+		}
+		return -1;
+	}
+
+	private static final long serialVersionUID = 2804471902915337064L;
+}
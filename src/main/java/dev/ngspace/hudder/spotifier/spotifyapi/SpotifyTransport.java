@@ -0,0 +1,147 @@
+package dev.ngspace.hudder.spotifier.spotifyapi;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodySubscriber;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import org.json.JSONObject;
+
+import dev.ngspace.hudder.spotifier.jfr.RequestEvent;
+
+/**
+ * The one way Spotifier talks to the network, and the threads it does everything else on.
+ * <ul>
+ * <li>A single HTTP/2 client, so connections (and TLS sessions) to Spotify are reused</li>
+ * <li>Asks for gzip and unpacks it</li>
+ * <li>Times and counts every request in {@link SpotifierMetrics} and as a JFR {@link RequestEvent}</li>
+ * <li>{@link #EXECUTOR} is a small pool of daemon threads, shared by the client, the poller, the token
+ * refresher and the track predictor. Nothing on it blocks, so responses are never kept waiting</li>
+ * <li>{@link #IO} is a single daemon thread for everything that does: disk writes, image decoding and
+ * {@code SpotifierListener}s, which it runs in order</li>
+ * <li>Both are shut down with {@link #shutdown()}</li>
+ * </ul>
+ */
+public class SpotifyTransport {private SpotifyTransport() {}
+
+    public static final int THREADS = 3;
+
+    private static final AtomicInteger THREAD_IDS = new AtomicInteger();
+    public static final ScheduledExecutorService EXECUTOR = Executors.newScheduledThreadPool(THREADS, r -> {
+        Thread thread = new Thread(r, "Spotifier Worker " + THREAD_IDS.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public static final ScheduledExecutorService IO = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "Spotifier IO");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final HttpClient CLIENT = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(Duration.ofSeconds(10))
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .executor(EXECUTOR)
+            .build();
+
+    /** Reads the body as bytes, unpacking it if it came gzipped. */
+    private static final BodyHandler<byte[]> BYTES = info -> {
+        BodySubscriber<byte[]> bytes = BodySubscribers.ofByteArray();
+        boolean gzip = info.headers().firstValue("Content-Encoding").filter("gzip"::equalsIgnoreCase).isPresent();
+        return gzip ? BodySubscribers.mapping(bytes, SpotifyTransport::gunzip) : bytes;
+    };
+
+    /** A GET request builder with the headers every request wants. */
+    public static HttpRequest.Builder get(String url) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .header("Accept-Encoding", "gzip")
+                .timeout(Duration.ofSeconds(20))
+                .GET();
+    }
+
+    /**
+     * Sends the request, timing it and counting its status under the endpoint's name.
+     * @param endpoint one of the {@link SpotifierMetrics} endpoint names
+     */
+    public static CompletableFuture<HttpResponse<byte[]>> send(String endpoint, HttpRequest req) {
+        long start = System.nanoTime();
+        RequestEvent event = new RequestEvent();
+        event.begin();
+        return CLIENT.sendAsync(req, BYTES)
+                .whenComplete((resp, error) -> {
+                    if (resp != null) SpotifierMetrics.recordResponse(endpoint, resp.statusCode(), start);
+                    else SpotifierMetrics.recordFailure(endpoint, start);
+
+                    event.end();
+                    if (event.shouldCommit()) {
+                        event.endpoint = endpoint;
+                        event.status = resp == null ? -1 : resp.statusCode();
+                        event.bytes = resp == null || resp.body() == null ? 0 : resp.body().length;
+                        event.commit();
+                    }
+                });
+    }
+
+    /**
+     * Posts a form to the token endpoint and parses the JSON it answers with.
+     * Fails with a {@link SpotifyHttpException} if the status isn't 2xx.
+     */
+    public static CompletableFuture<JSONObject> postForm(String url, String form) {
+        HttpRequest req;
+        try {
+            req = HttpRequest.newBuilder()
+                    .uri(URI.create(url))
+                    .header("Content-Type", "application/x-www-form-urlencoded")
+                    .header("Accept", "application/json")
+                    .header("Accept-Encoding", "gzip")
+                    .timeout(Duration.ofSeconds(20))
+                    .POST(HttpRequest.BodyPublishers.ofString(form, StandardCharsets.UTF_8))
+                    .build();
+        } catch (RuntimeException e) {
+            // A bad url fails the future like any other failure, callers keep track of what's in flight
+            return CompletableFuture.failedFuture(e);
+        }
+        return send(SpotifierMetrics.TOKEN, req).thenApply(resp -> {
+            String body = new String(resp.body(), StandardCharsets.UTF_8);
+            if (resp.statusCode() / 100 != 2) throw new SpotifyHttpException(resp.statusCode(), body);
+            return new JSONObject(body);
+        });
+    }
+
+    /** Stops the worker threads, giving running tasks (like a last cache write) a moment to finish. */
+    public static void shutdown() {
+        EXECUTOR.shutdown();
+        IO.shutdown();
+        try {
+            EXECUTOR.awaitTermination(2, TimeUnit.SECONDS);
+            IO.awaitTermination(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static byte[] gunzip(byte[] body) {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package dev.ngspace.hudder.spotifier.spotifyapi;
+
+/**
+ * What /tracks knows about a track that the player and queue responses don't say.
+ * Numbers are boxed once here since they're read as variables.
+ */
+public record TrackDetails(
+    Long popularity,
+    Boolean explicit,
+    String releaseDate,
+    Long discNumber,
+    Long trackNumber,
+    String isrc
+) {
+    private static final String TRACK_URL = "https://open.spotify.com/track/";
+
+    /** The id in an open.spotify.com track link, null for episodes, local files and anything else. */
+    public static String idOf(String trackUrl) {
+        if (trackUrl == null || !trackUrl.startsWith(TRACK_URL)) return null;
+        int end = trackUrl.indexOf('?', TRACK_URL.length());
+        String id = trackUrl.substring(TRACK_URL.length(), end < 0 ? trackUrl.length() : end);
+        return id.isEmpty() ? null : id;
+    }
+}
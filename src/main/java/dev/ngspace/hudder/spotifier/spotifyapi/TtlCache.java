@@ -0,0 +1,123 @@
+package dev.ngspace.hudder.spotifier.spotifyapi;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * A small, thread safe LRU cache whose entries expire after a fixed time.
+ * Concurrent misses for the same key share a single load. Null values are cached like any other value,
+ * failed loads are not cached at all.
+ */
+public class TtlCache<K, V> {
+
+    private final int maxSize;
+    private final long ttlMs;
+    private final LinkedHashMap<K, Entry<V>> entries;
+    private final Map<K, CompletableFuture<V>> loading = new ConcurrentHashMap<>();
+
+    public TtlCache(int maxSize, Duration ttl) {
+        this.maxSize = maxSize;
+        this.ttlMs = ttl.toMillis();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > TtlCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached value for the key, or starts loading it with the loader.
+     * If the key is already being loaded the same future is returned.
+     */
+    public CompletableFuture<V> get(K key, Function<K, CompletableFuture<V>> loader) {
+        Entry<V> entry = lookup(key);
+        if (entry != null) return CompletableFuture.completedFuture(entry.value);
+
+        CompletableFuture<V> created = new CompletableFuture<>();
+        CompletableFuture<V> existing = loading.putIfAbsent(key, created);
+        if (existing != null) return existing;
+
+        CompletableFuture<V> load;
+        try {
+            load = loader.apply(key);
+        } catch (RuntimeException e) {
+            load = CompletableFuture.failedFuture(e);
+        }
+        load.whenComplete((value, error) -> {
+            if (error == null) put(key, value);
+            loading.remove(key, created);
+            if (error == null) created.complete(value);
+            else created.completeExceptionally(error);
+        });
+        return created;
+    }
+
+    /** Returns the cached value, or null if it is missing or expired. */
+    public V getIfPresent(K key) {
+        Entry<V> entry = lookup(key);
+        return entry == null ? null : entry.value;
+    }
+
+    public boolean contains(K key) {
+        return lookup(key) != null;
+    }
+
+    public synchronized void put(K key, V value) {
+        entries.put(key, new Entry<>(value, System.currentTimeMillis() + ttlMs));
+    }
+
+    public synchronized void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** Adds an entry that expires at the given epoch millisecond instead of a full TTL from now. */
+    public synchronized void put(K key, V value, long expiresAt) {
+        if (expiresAt > System.currentTimeMillis()) entries.put(key, new Entry<>(value, expiresAt));
+    }
+
+    /** Like {@link #snapshot()}, with when every entry expires. */
+    public synchronized Map<K, Expiring<V>> expiring() {
+        long now = System.currentTimeMillis();
+        Map<K, Expiring<V>> live = new LinkedHashMap<>();
+        entries.forEach((key, entry) -> {
+            if (entry.expiresAt >= now) live.put(key, new Expiring<>(entry.value, entry.expiresAt));
+        });
+        return live;
+    }
+
+    /** A copy of the entries that haven't expired, least recently used first. */
+    public synchronized Map<K, V> snapshot() {
+        long now = System.currentTimeMillis();
+        Map<K, V> live = new LinkedHashMap<>();
+        entries.forEach((key, entry) -> {
+            if (entry.expiresAt >= now) live.put(key, entry.value);
+        });
+        return live;
+    }
+
+    private synchronized Entry<V> lookup(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) return null;
+        if (entry.expiresAt < System.currentTimeMillis()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    private static record Entry<V>(V value, long expiresAt) {}
+
+    /** @param expiresAt epoch millisecond the entry expires at */
+    public static record Expiring<V>(V value, long expiresAt) {}
+}
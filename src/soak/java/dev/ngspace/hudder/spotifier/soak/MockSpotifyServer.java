@@ -0,0 +1,277 @@
+package dev.ngspace.hudder.spotifier.soak;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import dev.ngspace.hudder.spotifier.SpotifierUtil;
+
+/**
+ * A fake of the parts of the Spotify Web API and accounts service Spotifier uses, answering from a
+ * {@link PlaybackTimeline}. Point {@code SpotifierConfig.api_base} at {@link #apiBase()} and
+ * {@code SpotifierConfig.accounts_base} at {@link #accountsBase()} to use it.
+ * <p>
+ * Serves {@code /v1/me/player}, {@code /v1/me/player/queue} (with ETags), {@code /v1/playlists/<id>},
+ * {@code /v1/tracks?ids=} and {@code /api/token}, hands out access tokens that really expire, can add latency and fail
+ * requests with 429, 401 and 5xx, and counts every request by endpoint and status.
+ */
+public class MockSpotifyServer implements AutoCloseable {
+
+	private final PlaybackTimeline timeline;
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+	private final Map<String, LongAdder> counts = new ConcurrentHashMap<>();
+	private final LongAdder served = new LongAdder();
+	private final LongAdder serviceTimeNs = new LongAdder();
+	/** Access token to the time it expires */
+	private final Map<String, Long> validTokens = new ConcurrentHashMap<>();
+	private final AtomicInteger issued = new AtomicInteger();
+
+	private volatile Faults faults = Faults.NONE;
+	private volatile int tokenLifetimeSeconds = 3600;
+
+	public MockSpotifyServer(PlaybackTimeline timeline) throws IOException {
+		this.timeline = timeline;
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		this.executor = Executors.newFixedThreadPool(8, r->{
+			Thread thread = new Thread(r, "Mock Spotify");
+			thread.setDaemon(true);
+			return thread;
+		});
+		server.createContext("/v1/", this::handleApi);
+		server.createContext("/api/token", this::handleToken);
+		server.setExecutor(executor);
+	}
+
+	public MockSpotifyServer start() {
+		server.start();
+		return this;
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	public String apiBase() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/v1";
+	}
+
+	public String accountsBase() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	public void setFaults(Faults faults) {
+		this.faults = faults;
+	}
+
+	/** Sets the expires_in of new tokens, tokens stop working once it runs out. */
+	public void setTokenLifetime(int seconds) {
+		this.tokenLifetimeSeconds = seconds;
+	}
+
+	// --- Counters -------------------------------------------------------------
+
+	/** Request counts keyed by {@code "<endpoint> <status>"}, sorted. */
+	public Map<String, Long> counts() {
+		Map<String, Long> out = new TreeMap<>();
+		counts.forEach((key, count) -> out.put(key, count.sum()));
+		return out;
+	}
+
+	public long requests() {
+		return served.sum();
+	}
+
+	/** Average time spent answering a request, injected latency included. */
+	public double averageServiceMs() {
+		long n = served.sum();
+		return n==0 ? 0 : serviceTimeNs.sum() / 1e6 / n;
+	}
+
+	// --- Handlers -------------------------------------------------------------
+
+	private void handleApi(HttpExchange exchange) throws IOException {
+		long start = System.nanoTime();
+		String path = exchange.getRequestURI().getPath();
+		String endpoint = path.startsWith("/v1/playlists/") ? "/v1/playlists/{id}" : path;
+		int status;
+		try {
+			delay();
+			status = injectedFailure();
+			if (status==401)
+				validTokens.remove(token(exchange));
+			if (status!=0) {
+				error(exchange, status);
+			} else if (!isValid(token(exchange))) {
+				status = error(exchange, 401);
+			} else {
+				status = switch (endpoint) {
+					case "/v1/me/player" -> {
+						JSONObject player = timeline.player();
+						yield player==null ? send(exchange, 204, null) : send(exchange, 200, player.toString());
+					}
+					case "/v1/me/player/queue" -> sendQueue(exchange);
+					case "/v1/playlists/{id}" -> {
+						String name = timeline.playlistName(path.substring("/v1/playlists/".length()));
+						yield name==null ? error(exchange, 404) : send(exchange, 200, new JSONObject().put("name", name).toString());
+					}
+					case "/v1/tracks" -> sendTracks(exchange);
+					default -> error(exchange, 404);
+				};
+			}
+		} catch (RuntimeException e) {
+			status = error(exchange, 500);
+		}
+		count(endpoint, status, start);
+	}
+
+	private int sendQueue(HttpExchange exchange) throws IOException {
+		String body = timeline.queue(20).toString();
+		String etag = "\"" + Integer.toHexString(body.hashCode()) + "\"";
+		exchange.getResponseHeaders().set("ETag", etag);
+		if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match")))
+			return send(exchange, 304, null);
+		return send(exchange, 200, body);
+	}
+
+	/** Like Spotify, takes up to 50 ids and answers null for the ones it doesn't know. */
+	private int sendTracks(HttpExchange exchange) throws IOException {
+		String ids = SpotifierUtil.splitQuery(exchange.getRequestURI().getRawQuery()).get("ids");
+		if (ids==null||ids.isEmpty())
+			return error(exchange, 400);
+		String[] split = ids.split(",");
+		if (split.length>50)
+			return error(exchange, 400);
+		JSONArray tracks = new JSONArray();
+		for (String id : split) {
+			PlaybackTimeline.Track track = timeline.track(id);
+			tracks.put(track==null ? JSONObject.NULL : track.toFullJson());
+		}
+		return send(exchange, 200, new JSONObject().put("tracks", tracks).toString());
+	}
+
+	private void handleToken(HttpExchange exchange) throws IOException {
+		long start = System.nanoTime();
+		int status;
+		delay();
+		Map<String, String> form = SpotifierUtil.splitQuery(
+				new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+		String grant = form.get("grant_type");
+		if (!"refresh_token".equals(grant)&&!"authorization_code".equals(grant)) {
+			status = error(exchange, 400);
+		} else {
+			String token = "mock-access-" + issued.incrementAndGet();
+			int lifetime = tokenLifetimeSeconds;
+			validTokens.put(token, System.currentTimeMillis() + lifetime * 1000L);
+			status = send(exchange, 200, new JSONObject()
+					.put("access_token", token)
+					.put("token_type", "Bearer")
+					.put("expires_in", lifetime)
+					.put("scope", "user-read-playback-state")
+					.toString());
+		}
+		count("/api/token", status, start);
+	}
+
+	private boolean isValid(String token) {
+		Long expiresAt = validTokens.get(token);
+		if (expiresAt==null)
+			return false;
+		if (expiresAt<System.currentTimeMillis()) {
+			validTokens.remove(token);
+			return false;
+		}
+		return true;
+	}
+
+	// --- Helpers --------------------------------------------------------------
+
+	private void delay() {
+		Faults f = faults;
+		if (f.maxLatencyMs()<=0)
+			return;
+		try {
+			Thread.sleep(ThreadLocalRandom.current().nextLong(f.minLatencyMs(), f.maxLatencyMs() + 1));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** Rolls for an injected failure, 0 if the request should go through. */
+	private int injectedFailure() {
+		Faults f = faults;
+		double roll = ThreadLocalRandom.current().nextDouble();
+		if ((roll -= f.tooManyRequests())<0)
+			return 429;
+		if ((roll -= f.unauthorized())<0)
+			return 401;
+		if ((roll -= f.serverErrors())<0)
+			return ThreadLocalRandom.current().nextBoolean() ? 502 : 503;
+		return 0;
+	}
+
+	private static String token(HttpExchange exchange) {
+		String header = exchange.getRequestHeaders().getFirst("Authorization");
+		return header==null||!header.startsWith("Bearer ") ? "" : header.substring("Bearer ".length());
+	}
+
+	private static int error(HttpExchange exchange, int status) throws IOException {
+		if (status==429)
+			exchange.getResponseHeaders().set("Retry-After", "2");
+		return send(exchange, status, new JSONObject()
+				.put("error", new JSONObject().put("status", status).put("message", "Injected by the mock server"))
+				.toString());
+	}
+
+	private static int send(HttpExchange exchange, int status, String body) throws IOException {
+		if (body==null) {
+			exchange.sendResponseHeaders(status, -1);
+			exchange.close();
+			return status;
+		}
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(bytes);
+		}
+		return status;
+	}
+
+	private void count(String endpoint, int status, long startNs) {
+		counts.computeIfAbsent(endpoint + " " + status, _ -> new LongAdder()).increment();
+		served.increment();
+		serviceTimeNs.add(System.nanoTime() - startNs);
+	}
+
+	/**
+	 * What to do to requests on top of answering them.
+	 * @param minLatencyMs the least latency added to every request
+	 * @param maxLatencyMs the most latency added to every request, 0 for none
+	 * @param tooManyRequests share of requests answered with 429 (and a Retry-After)
+	 * @param unauthorized share of requests answered with 401, the token used is revoked too
+	 * @param serverErrors share of requests answered with 502 or 503
+	 */
+	public static record Faults(long minLatencyMs, long maxLatencyMs, double tooManyRequests, double unauthorized,
+			double serverErrors) {
+		public static final Faults NONE = new Faults(0, 0, 0, 0, 0);
+	}
+}
@@ -0,0 +1,255 @@
+package dev.ngspace.hudder.spotifier.soak;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * A scripted listening session that loops forever: tracks played whole or skipped, pauses, stretches
+ * with nothing playing, playlist changes and shuffle/repeat toggles. {@link MockSpotifyServer} answers
+ * with whatever the script says is happening right now.
+ * <p>
+ * The speed divides every length in the script (track durations included), so at 20 a four minute
+ * track lasts 12 seconds and an hour of soaking sees as many track changes as 20 hours of listening.
+ */
+public class PlaybackTimeline {
+
+	private final LongSupplier clock;
+	private final double speed;
+	private final List<Segment> segments = new ArrayList<>();
+	private long length;
+	private long start = -1;
+
+	private Context context;
+	private boolean shuffle;
+	private String repeat = "off";
+
+	/**
+	 * @param clock the time source in ms, usually {@code System::currentTimeMillis}
+	 * @param speed how many times faster than real time the script plays
+	 */
+	public PlaybackTimeline(LongSupplier clock, double speed) {
+		this.clock = clock;
+		this.speed = speed;
+	}
+
+	// --- Script ---------------------------------------------------------------
+
+	public PlaybackTimeline playlist(String id, String name) {
+		context = new Context("playlist", id, name);
+		return this;
+	}
+
+	public PlaybackTimeline likedSongs() {
+		context = new Context("collection", null, "Liked Songs");
+		return this;
+	}
+
+	public PlaybackTimeline shuffle(boolean shuffle) {
+		this.shuffle = shuffle;
+		return this;
+	}
+
+	public PlaybackTimeline repeat(String repeat) {
+		this.repeat = repeat;
+		return this;
+	}
+
+	/** Plays the whole track. */
+	public PlaybackTimeline play(Track track) {
+		return add(track, true, 0, track.durationMs());
+	}
+
+	/** Plays the start of the track and skips to the next one. */
+	public PlaybackTimeline skipAfter(Track track, long playedMs) {
+		return add(track, true, 0, playedMs);
+	}
+
+	/** Plays the track, pausing it for a while in the middle. */
+	public PlaybackTimeline pauseDuring(Track track, long atMs, long pausedMs) {
+		add(track, true, 0, atMs);
+		add(track, false, atMs, pausedMs);
+		return add(track, true, atMs, track.durationMs() - atMs);
+	}
+
+	/** Nothing playing at all, Spotify answers 204. */
+	public PlaybackTimeline idle(long ms) {
+		return add(null, false, 0, ms);
+	}
+
+	private PlaybackTimeline add(Track track, boolean playing, long from, long ms) {
+		long scaled = Math.max(1, (long) (ms / speed));
+		segments.add(new Segment(track==null ? null : track.scaled(speed), playing, (long) (from / speed), scaled,
+				track==null ? null : context, shuffle, repeat));
+		length += scaled;
+		return this;
+	}
+
+	// --- State ----------------------------------------------------------------
+
+	/** Starts the script now, otherwise it starts on the first request. */
+	public synchronized void start() {
+		start = clock.getAsLong();
+	}
+
+	/** The player response right now, or null when nothing is playing. */
+	public JSONObject player() {
+		long now = clock.getAsLong();
+		int index = segmentAt(now);
+		Segment segment = segments.get(index);
+		if (segment.track==null)
+			return null;
+
+		JSONObject player = new JSONObject();
+		// Like Spotify, when the playback state last changed and not when this was asked for
+		player.put("timestamp", now - offsetIn(index, now));
+		player.put("progress_ms", segment.from + (segment.playing ? offsetIn(index, now) : 0));
+		player.put("is_playing", segment.playing);
+		player.put("shuffle_state", segment.shuffle);
+		player.put("repeat_state", segment.repeat);
+		player.put("currently_playing_type", "track");
+		player.put("item", segment.track.toJson());
+		player.put("context", segment.context==null ? JSONObject.NULL : segment.context.toJson());
+		player.put("device", new JSONObject().put("name", "Soak").put("type", "Computer").put("volume_percent", 60));
+		return player;
+	}
+
+	/** The queue response right now: the next tracks of the script, repeats of the current one skipped. */
+	public JSONObject queue(int size) {
+		long now = clock.getAsLong();
+		int index = segmentAt(now);
+		Track current = segments.get(index).track;
+		JSONArray queue = new JSONArray();
+		Track last = current;
+		for (int i = 1;i<=segments.size()&&queue.length()<size;i++) {
+			Track next = segments.get((index + i) % segments.size()).track;
+			// Segments of the same play (around a pause) each have their own scaled copy of the track
+			if (next!=null&&(last==null||!next.id().equals(last.id())))
+				queue.put(next.toJson());
+			if (next!=null)
+				last = next;
+		}
+		return new JSONObject()
+				.put("currently_playing", current==null ? JSONObject.NULL : current.toJson())
+				.put("queue", queue);
+	}
+
+	/** A track in the script, or null if there is none with that id. */
+	public Track track(String id) {
+		for (Segment segment : segments) {
+			if (segment.track!=null&&id.equals(segment.track.id))
+				return segment.track;
+		}
+		return null;
+	}
+
+	/** The name of a playlist in the script, or null if there is none with that id. */
+	public String playlistName(String id) {
+		for (Segment segment : segments) {
+			if (segment.context!=null&&id.equals(segment.context.id))
+				return segment.context.name;
+		}
+		return null;
+	}
+
+	private synchronized int segmentAt(long now) {
+		if (start<0)
+			start = now;
+		long t = Math.floorMod(now - start, length);
+		for (int i = 0;i<segments.size();i++) {
+			if (t<segments.get(i).length)
+				return i;
+			t -= segments.get(i).length;
+		}
+		return segments.size() - 1;
+	}
+
+	private synchronized long offsetIn(int index, long now) {
+		long t = Math.floorMod(now - start, length);
+		for (int i = 0;i<index;i++)
+			t -= segments.get(i).length;
+		return t;
+	}
+
+	// --- Sample ---------------------------------------------------------------
+
+	/** A bit of everything: two playlists, liked songs, skips, a pause, shuffle and repeat changes and some silence. */
+	public static PlaybackTimeline sample(LongSupplier clock, double speed) {
+		Track midnight = new Track("Midnight City", new String[] {"M83"}, "Hurry Up, We're Dreaming", "album", "6GyFP1nfCDB8lbD2bG0Hq9", 243960);
+		Track oblivion = new Track("Oblivion", new String[] {"Grimes"}, "Visions", "album", "4rIdrBETF8jWHMvW7AhHDY", 251000);
+		Track tame = new Track("The Less I Know The Better", new String[] {"Tame Impala"}, "Currents", "album", "6K4t31amVTZDgR3sKmwUJJ", 216320);
+		Track feature = new Track("Get Lucky", new String[] {"Daft Punk", "Pharrell Williams", "Nile Rodgers"}, "Random Access Memories", "album", "69kOkLUCkxIZYexIgSG8rq", 369626);
+		Track single = new Track("Tití Me Preguntó", new String[] {"Bad Bunny"}, "Un Verano Sin Ti", "single", "1IHWl5LamUGEuP4ozKQSXZ", 243716);
+		Track epic = new Track("Echoes", new String[] {"Pink Floyd"}, "Meddle", "album", "7kriFJLY2KOhw5en9iI2jb", 1412000);
+
+		return new PlaybackTimeline(clock, speed)
+				.playlist("37i9dQZF1DXcBWIGoYBM5M", "Today's Top Hits")
+				.play(midnight)
+				.skipAfter(oblivion, 35000)
+				.pauseDuring(tame, 90000, 45000)
+				.shuffle(true)
+				.play(feature)
+				.play(single)
+				.idle(60000)
+				.likedSongs()
+				.repeat("track")
+				.play(single)
+				.repeat("off")
+				.playlist("5P2nXP3QjvMVyQmoEzEUwN", "Long Songs")
+				.shuffle(false)
+				.play(epic);
+	}
+
+	// --- Types ----------------------------------------------------------------
+
+	public static record Track(String name, String[] artists, String album, String albumType, String id, long durationMs) {
+
+		Track scaled(double speed) {
+			return new Track(name, artists, album, albumType, id, Math.max(1, (long) (durationMs / speed)));
+		}
+
+		JSONObject toJson() {
+			JSONArray artistArray = new JSONArray();
+			for (String artist : artists)
+				artistArray.put(new JSONObject().put("name", artist).put("type", "artist"));
+			return new JSONObject()
+					.put("name", name)
+					.put("id", id)
+					.put("type", "track")
+					.put("duration_ms", durationMs)
+					.put("explicit", false)
+					.put("album", new JSONObject().put("name", album).put("album_type", albumType).put("images", new JSONArray()))
+					.put("artists", artistArray)
+					.put("external_urls", new JSONObject().put("spotify", "https://open.spotify.com/track/" + id));
+		}
+
+		/** The track the way /tracks has it, with made up (but stable) details. */
+		JSONObject toFullJson() {
+			int seed = Math.abs(id.hashCode());
+			JSONObject json = toJson()
+					.put("popularity", seed%100)
+					.put("disc_number", 1)
+					.put("track_number", 1 + seed%12)
+					.put("external_ids", new JSONObject().put("isrc", "SOAK" + String.format("%08d", seed%100000000)));
+			json.getJSONObject("album").put("release_date", (1970 + seed%55) + "-01-01");
+			return json;
+		}
+	}
+
+	private static record Context(String type, String id, String name) {
+		JSONObject toJson() {
+			if (id==null)
+				return new JSONObject().put("type", type).put("uri", "spotify:user:soak:collection");
+			return new JSONObject()
+					.put("type", type)
+					.put("uri", "spotify:playlist:" + id)
+					.put("href", "https://api.spotify.com/v1/playlists/" + id);
+		}
+	}
+
+	private static record Segment(Track track, boolean playing, long from, long length, Context context,
+			boolean shuffle, String repeat) {}
+}
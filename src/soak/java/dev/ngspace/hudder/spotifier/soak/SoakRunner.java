@@ -0,0 +1,127 @@
+package dev.ngspace.hudder.spotifier.soak;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import dev.ngspace.hudder.spotifier.SessionState;
+import dev.ngspace.hudder.spotifier.Spotifier;
+import dev.ngspace.hudder.spotifier.config.SpotifierConfig;
+import dev.ngspace.hudder.spotifier.soak.MockSpotifyServer.Faults;
+import dev.ngspace.hudder.spotifier.spotifyapi.NowPlaying;
+import dev.ngspace.hudder.spotifier.spotifyapi.SpotifierMetrics;
+
+/**
+ * Runs the real poller against a {@link MockSpotifyServer} for a long time and reports the request rate,
+ * latency, thread count and heap every so often. Fails if threads leaked by the end.
+ * <p>
+ * Run with {@code ./gradlew soak}, settings are system properties (passed on as {@code -P} by the task):
+ * <ul>
+ * <li>{@code soak.minutes} - how long to run, 60 by default</li>
+ * <li>{@code soak.speed} - how much faster than real time the script plays, 20 by default</li>
+ * <li>{@code soak.report} - seconds between reports, 60 by default</li>
+ * <li>{@code soak.latency} - latency added to every request as {@code min-max} ms, none by default</li>
+ * <li>{@code soak.429}, {@code soak.401}, {@code soak.5xx} - share of requests failed with those, 0 by default</li>
+ * <li>{@code soak.tokenLifetime} - expires_in of the tokens handed out in seconds, 600 by default</li>
+ * </ul>
+ */
+public class SoakRunner {private SoakRunner() {}
+
+	/** Threads allowed to appear over the run before it counts as a leak (HttpClient pools grow a little) */
+	private static final int THREAD_SLACK = 8;
+
+	public static void main(String[] args) throws Exception {
+		Duration runFor = Duration.ofMinutes(Long.getLong("soak.minutes", 60));
+		double speed = Double.parseDouble(System.getProperty("soak.speed", "20"));
+		long reportMs = Long.getLong("soak.report", 60) * 1000;
+		String[] latency = System.getProperty("soak.latency", "0-0").split("-");
+		Faults faults = new Faults(Long.parseLong(latency[0]), Long.parseLong(latency[latency.length - 1]),
+				Double.parseDouble(System.getProperty("soak.429", "0")),
+				Double.parseDouble(System.getProperty("soak.401", "0")),
+				Double.parseDouble(System.getProperty("soak.5xx", "0")));
+
+		try (MockSpotifyServer server = new MockSpotifyServer(PlaybackTimeline.sample(System::currentTimeMillis, speed))) {
+			server.setFaults(faults);
+			server.setTokenLifetime(Integer.getInteger("soak.tokenLifetime", 600));
+			server.start();
+
+			SpotifierConfig.api_base = server.apiBase();
+			SpotifierConfig.accounts_base = server.accountsBase();
+			SpotifierConfig.client_id = "soak";
+			SpotifierConfig.refresh_token = "soak";
+
+			System.out.printf("Soaking for %s at %.0fx against %s with %s%n", runFor, speed, server.apiBase(), faults);
+
+			ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+			MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+			int startThreads = threads.getThreadCount();
+			long startHeap = usedHeapAfterGc(memory);
+
+			Spotifier.start();
+
+			long start = System.currentTimeMillis();
+			long end = start + runFor.toMillis();
+			long lastRequests = 0;
+			Map<String, Long> lastCounts = new HashMap<>();
+			int firstThreads = -1;
+			long firstHeap = -1;
+			while (System.currentTimeMillis()<end) {
+				Thread.sleep(Math.min(reportMs, end - System.currentTimeMillis()));
+
+				long requests = server.requests();
+				Map<String, Long> counts = server.counts();
+				long heap = usedHeapAfterGc(memory);
+				int threadCount = threads.getThreadCount();
+				// The first report is the baseline, the pools are warmed up by then
+				if (firstThreads<0) {
+					firstThreads = threadCount;
+					firstHeap = heap;
+				}
+
+				System.out.printf("[%4ds] %.1f req/min, %.1f ms avg service, %d threads (peak %d), %.1f MB heap, %s%n",
+						(System.currentTimeMillis() - start) / 1000,
+						(requests - lastRequests) * 60000.0 / reportMs, server.averageServiceMs(),
+						threadCount, threads.getPeakThreadCount(), heap / 1048576.0, describe(Spotifier.getSession()));
+				for (Map.Entry<String, Long> count : counts.entrySet()) {
+					long delta = count.getValue() - lastCounts.getOrDefault(count.getKey(), 0L);
+					if (delta>0)
+						System.out.printf("         %-28s +%d%n", count.getKey(), delta);
+				}
+				lastRequests = requests;
+				lastCounts = counts;
+			}
+
+			int endThreads = threads.getThreadCount();
+			long endHeap = usedHeapAfterGc(memory);
+			System.out.printf("Done: %d requests, threads %d -> %d -> %d, heap %.1f -> %.1f -> %.1f MB%n",
+					server.requests(), startThreads, firstThreads, endThreads,
+					startHeap / 1048576.0, firstHeap / 1048576.0, endHeap / 1048576.0);
+			server.counts().forEach((key, count) -> System.out.printf("         %-28s %d%n", key, count));
+			System.out.println(SpotifierMetrics.summary());
+
+			if (firstThreads>=0&&endThreads>firstThreads + THREAD_SLACK) {
+				System.out.printf("Thread leak: %d threads at the first report, %d at the end%n", firstThreads, endThreads);
+				System.exit(1);
+			}
+		}
+		System.exit(0);
+	}
+
+	private static String describe(SessionState session) {
+		if (!session.connected())
+			return "not connected";
+		NowPlaying playing = session.playing();
+		if (playing==null)
+			return "nothing playing";
+		return (playing.isPlaying() ? "playing '" : "paused '") + playing.trackName() + "', data "
+				+ (System.currentTimeMillis() - playing.pullTime().toEpochMilli()) + " ms old";
+	}
+
+	private static long usedHeapAfterGc(MemoryMXBean memory) {
+		System.gc();
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+}
@@ -0,0 +1,60 @@
+package dev.ngspace.hudder.spotifier.spotifyapi;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import dev.ngspace.hudder.spotifier.spotifyapi.BodyDigest.PlayerDigest;
+
+class BodyDigestTest {
+
+    @Test
+    void readsProgressAndTimestamp() {
+        PlayerDigest digest = BodyDigest.digestPlayer(Fixtures.load("player_track"));
+        assertEquals(84231, digest.progressMs());
+        assertEquals(1760659200123L, digest.timestamp());
+    }
+
+    @Test
+    void ignoresKeyNamesInValues() {
+        PlayerDigest digest = BodyDigest.digestPlayer(Fixtures.load("player_key_names"));
+        assertEquals(84231, digest.progressMs());
+        assertEquals(1760659200123L, digest.timestamp());
+
+        digest = BodyDigest.digestPlayer(bytes("{\"timestamp\":1000,\"progress_ms\":5000,\"item\":{\"name\":\"progress_ms\"}}"));
+        assertEquals(5000, digest.progressMs());
+        assertEquals(1000, digest.timestamp());
+    }
+
+    @Test
+    void ignoresNestedKeys() {
+        PlayerDigest digest = BodyDigest.digestPlayer(bytes("{\"item\":{\"progress_ms\":1},\"progress_ms\":2}"));
+        assertEquals(2, digest.progressMs());
+    }
+
+    @Test
+    void hashSkipsProgressAndTimestamp() {
+        String player = new String(Fixtures.load("player_track"), StandardCharsets.UTF_8);
+        long hash = BodyDigest.digestPlayer(bytes(player)).hash();
+        String later = player.replace("\"progress_ms\": 84231", "\"progress_ms\": 90000")
+                .replace("\"timestamp\": 1760659200123", "\"timestamp\": 1760659300000");
+        assertNotEquals(player, later);
+        assertEquals(hash, BodyDigest.digestPlayer(bytes(later)).hash());
+        assertNotEquals(hash, BodyDigest.digestPlayer(bytes(player.replace("\"is_playing\": true", "\"is_playing\": false"))).hash());
+    }
+
+    @Test
+    void escapedQuotesDontEndStrings() {
+        PlayerDigest digest = BodyDigest.digestPlayer(bytes("{\"name\":\"a \\\" \\\\\",\"progress_ms\":7}"));
+        assertEquals(7, digest.progressMs());
+        digest = BodyDigest.digestPlayer(bytes("{\"name\":\"\\\",\\\"progress_ms\\\":1\",\"progress_ms\":7}"));
+        assertEquals(7, digest.progressMs());
+    }
+
+    private static byte[] bytes(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,46 @@
+package dev.ngspace.hudder.spotifier.spotifyapi;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import dev.ngspace.hudder.spotifier.spotifyapi.BodyDigest.PlayerDigest;
+import dev.ngspace.hudder.spotifier.spotifyapi.SpotifyAPI.ParsedPlayer;
+
+class ParsePlayerTest {
+
+    @Test
+    void nothingPlaying() {
+        assertTrue(SpotifyAPI.validatePlayer(new FixtureResponse(204, Fixtures.load("player_204"))).isEmpty());
+    }
+
+    @Test
+    void parsesTrack() {
+        ParsedPlayer parsed = parse("player_track");
+        assertTrue(parsed.isPlaying());
+        assertNotNull(parsed.track());
+        assertEquals("E2Zs8IQ9Y7aJZqhB6baeCN", parsed.ctx().playlistId());
+    }
+
+    @Test
+    void parsesEpisode() {
+        assertNotNull(parse("player_episode").track());
+    }
+
+    @Test
+    void keyNamesAsValues() {
+        ParsedPlayer parsed = parse("player_key_names");
+        assertEquals("progress_ms", parsed.track().name());
+        assertEquals("\"progress_ms\": 1", parsed.track().album());
+        assertEquals("{\"timestamp\":2}", parsed.track().artists()[0]);
+        assertEquals(parse("player_track").track().durationMs(), parsed.track().durationMs());
+    }
+
+    private static ParsedPlayer parse(String fixture) {
+        byte[] body = Fixtures.load(fixture);
+        PlayerDigest digest = BodyDigest.digestPlayer(body);
+        return SpotifyAPI.parsePlayer(digest.hash(), body);
+    }
+}
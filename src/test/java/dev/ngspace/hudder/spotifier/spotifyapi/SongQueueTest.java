@@ -0,0 +1,65 @@
+package dev.ngspace.hudder.spotifier.spotifyapi;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class SongQueueTest {
+
+    @Test
+    void indexesUpToTheDepth() {
+        byte[] queue = Fixtures.load("queue_20");
+        assertEquals(20, SongQueue.index(queue, 50, null).size());
+        assertEquals(5, SongQueue.index(queue, 5, null).size());
+        assertEquals(0, SongQueue.index(queue, 0, null).size());
+    }
+
+    @Test
+    void decodesSongs() {
+        SongQueue queue = SongQueue.index(Fixtures.load("queue_20"), 20, null);
+        assertEquals("Midnight Drive", queue.get(0).trackName());
+        assertEquals("Łódź Nights", queue.get(3).trackName());
+        assertEquals("Blue Hour", queue.get(19).trackName());
+        assertTrue(queue.get(0).trackUrl().startsWith("https://open.spotify.com/track/"));
+    }
+
+    @Test
+    void nullQueueIsEmpty() {
+        assertEquals(0, SongQueue.index(Fixtures.load("queue_null"), 20, null).size());
+    }
+
+    @Test
+    void emptyQueueIsEmpty() {
+        assertEquals(0, SongQueue.index(Fixtures.load("queue_empty"), 20, null).size());
+    }
+
+    @Test
+    void decodesEscapes() {
+        SongQueue queue = SongQueue.index(Fixtures.load("queue_escapes"), 20, null);
+        assertEquals(3, queue.size());
+        assertEquals("Say \"queue\" \\ Again", queue.get(0).trackName());
+        assertEquals("Café del Mar – Sunset Mix", queue.get(1).trackName());
+        assertEquals("{\"queue\": []}", queue.get(2).albumName());
+    }
+
+    @Test
+    void reusesSongsDecodedBefore() {
+        byte[] queue = Fixtures.load("queue_20");
+        SongQueue before = SongQueue.index(Fixtures.rewrite(queue), 20, null);
+        before.toArray();
+        SongQueue after = SongQueue.index(Fixtures.shiftQueue(queue), 20, before);
+        assertEquals(20, after.size());
+        assertSame(before.get(1), after.get(0));
+        assertEquals(before.get(0).trackName() + " (Live)", after.get(19).trackName());
+    }
+
+    @Test
+    void afterFirstDropsTheFirstSong() {
+        SongQueue queue = SongQueue.index(Fixtures.load("queue_20"), 20, null);
+        SongQueue rest = queue.afterFirst();
+        assertEquals(19, rest.size());
+        assertEquals(queue.get(1).trackUrl(), rest.get(0).trackUrl());
+    }
+}